@@ -9,6 +9,10 @@
 package com.amazon.alexa.avs;
 
 import com.amazon.alexa.avs.AudioPlayerStateMachine.AudioPlayerState;
+import com.amazon.alexa.avs.AudioFocusManager.Channel;
+import com.amazon.alexa.avs.AudioFocusManager.ChannelOutput;
+import com.amazon.alexa.avs.AudioFocusManager.FocusState;
+import com.amazon.alexa.avs.AudioFocusManager.Policy;
 import com.amazon.alexa.avs.exception.DirectiveHandlingException;
 import com.amazon.alexa.avs.exception.DirectiveHandlingException.ExceptionType;
 import com.amazon.alexa.avs.message.request.RequestFactory;
@@ -23,13 +27,11 @@ import com.amazon.alexa.avs.message.response.speaker.SetMute;
 import com.amazon.alexa.avs.message.response.speaker.VolumePayload;
 import com.amazon.alexa.avs.message.response.speechsynthesizer.Speak;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
@@ -39,7 +41,8 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 
-import javazoom.jl.player.Player;
+import javax.sound.sampled.LineUnavailableException;
+
 import uk.co.caprica.vlcj.component.AudioMediaPlayerComponent;
 import uk.co.caprica.vlcj.player.MediaPlayer;
 import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
@@ -60,14 +63,43 @@ public class AVSAudioPlayer {
     private Set<String> streamUrls;
     // Urls associated with the current stream that we've already tried to play
     private Set<String> attemptedUrls;
-    // Alarm thread
-    private Thread alarmThread;
-    // Speaker thread
-    private Thread playThread;
-    // Object on which to lock
-    private Object playLock = new Object();
-    // How long the thread should block on waiting for audio to finish playing
-    private static final int TIMEOUT_IN_MS = 3000;
+
+    private static final String ALARM_SOUND = "res/alarm.mp3";
+
+    // Media keeps streaming, quietly, under speech and alarms rather than pausing and rebuffering
+    private static final Policy CONTENT_POLICY = Policy.duck(20);
+    // The alarm carries on under Alexa's speech, quietly, since they are mixed
+    private static final Policy ALERTS_POLICY = Policy.duck(30);
+    // Nothing plays into the open microphone. Media is muted rather than paused so it doesn't
+    // rebuffer
+    private static final Policy CONTENT_LISTENING_POLICY = Policy.mute();
+    private static final Policy ALERTS_LISTENING_POLICY = Policy.pause();
+
+    // Everything below is changed on the scheduler's loop, and playback runs on its threads
+    private final AudioScheduler scheduler = new AudioScheduler();
+    private final AudioFocusManager focus = new AudioFocusManager(scheduler);
+
+    // Speech, earcons and the alarm all play through one output line
+    private final AudioMixer mixer = new AudioMixer();
+
+    // Plays the sounds decoded at startup
+    private final EarconPlayer earcons;
+
+    // Plays Alexa's speech, decoding it ahead of the mixer
+    private final SpeechPlayer speechPlayer = new SpeechPlayer(mixer);
+    // The speech being played, if any
+    private SpeakItem currentSpeech;
+
+    // Whether the device holds the dialog channel, from the start of a speech request to its end
+    private boolean dialogHeld;
+    // Whether the microphone is open for the user to talk to Alexa
+    private boolean listening;
+    // Whether the media at the head of the play queue is waiting for the focus to start
+    private boolean playbackPending;
+    // Whether the media was paused because another channel took the focus
+    private boolean contentPaused;
+    // Applied to the user's volume while the media is ducked
+    private volatile float contentGain = 1;
 
     // VLCJ volumes are between 0-200. Alexa volumes are from 0-100. These constants are used to
     // convert and limit volume values.
@@ -75,14 +107,10 @@ public class AVSAudioPlayer {
     private static final int VLCJ_MIN_VOLUME = 0;
     private static final int VLCJ_MAX_VOLUME = 200;
 
-    private long stopOffset;
-    // track the last progressReport sent time
-    private boolean waitForPlaybackFinished;
-    // used for speak directives and earcons
-    private Player speaker = null;
+    private volatile long stopOffset;
     private final ClassLoader resLoader; // used to load resource files
 
-    private String latestStreamToken = "";
+    private volatile String latestStreamToken = "";
 
     private String latestToken = "";
 
@@ -107,20 +135,14 @@ public class AVSAudioPlayer {
 
     private enum AlertState {
         PLAYING,
+        // Active but silent, because another channel has the focus
         INTERRUPTED,
         FINISHED;
     }
-    
-    private enum ResourcePlayState {
-    	PLAYING,
-    	FINISHED
-    }
 
     private volatile AlertState alertState = AlertState.FINISHED;
 
     private volatile SpeechState speechState = SpeechState.FINISHED;
-    
-    private volatile ResourcePlayState resPlayState = ResourcePlayState.FINISHED; 
 
     private boolean currentlyMuted;
 
@@ -128,12 +150,13 @@ public class AVSAudioPlayer {
         this.controller = controller;
         resLoader = Thread.currentThread().getContextClassLoader();
         stopOffset = -1;
-        waitForPlaybackFinished = false;
         playQueue = new LinkedList<Stream>();
         speakQueue = new LinkedList<SpeakItem>();
         streamUrls = new HashSet<String>();
         attemptedUrls = new HashSet<String>();
         setupAudioPlayer();
+        earcons = new EarconPlayer(resLoader, mixer);
+        setupMixer();
 
         currentVolume = audioPlayer.getMediaPlayer().getVolume();
         currentlyMuted = audioPlayer.getMediaPlayer().isMute();
@@ -145,6 +168,11 @@ public class AVSAudioPlayer {
                 new ProgressReportIntervalEventRunnable(audioPlayerStateMachine));
 
         listeners = new HashSet<>();
+
+        focus.register(Channel.ALERTS, ALERTS_POLICY, new AlertsOutput());
+        focus.register(Channel.CONTENT, CONTENT_POLICY, new ContentOutput());
+        focus.setPolicy(Channel.ALERTS, Channel.LISTENING, ALERTS_LISTENING_POLICY);
+        focus.setPolicy(Channel.CONTENT, Channel.LISTENING, CONTENT_LISTENING_POLICY);
     }
 
     public void registerAlexaSpeechListener(AlexaSpeechListener listener) {
@@ -154,21 +182,18 @@ public class AVSAudioPlayer {
     public void handleSpeak(Speak speak) {
         SpeakItem speakItem = new SpeakItem(speak.getToken(), speak.getAttachedContent());
 
-        speakQueue.add(speakItem);
-        // if not already speaking, start speech
-        if (speakQueue.size() == 1) {
-            startSpeech();
-        }
+        // Waits so that speech has started, and the directives after it are held, on return
+        scheduler.executeAndWait(() -> {
+            speakQueue.add(speakItem);
+            // if not already speaking, start speech
+            if (currentSpeech == null) {
+                startSpeech();
+            }
+        });
     }
 
     public void handlePlay(Play play) throws DirectiveHandlingException {
         AudioItem item = play.getAudioItem();
-        if (play.getPlayBehavior() == Play.PlayBehavior.REPLACE_ALL) {
-            clearAll();
-        } else if (play.getPlayBehavior() == Play.PlayBehavior.REPLACE_ENQUEUED) {
-            clearEnqueued();
-        }
-
         Stream stream = item.getStream();
         String streamUrl = stream.getUrl();
         String streamId = stream.getToken();
@@ -184,35 +209,45 @@ public class AVSAudioPlayer {
                         StandardCopyOption.REPLACE_EXISTING);
 
                 stream.setUrl(tmp.getAbsolutePath());
-                add(stream);
             } catch (IOException e) {
                 log.error("Error while saving audio to a file", e);
                 throw new DirectiveHandlingException(ExceptionType.INTERNAL_ERROR,
                         "Error saving attached content to disk, unable to handle Play directive.");
             }
-        } else {
-            add(stream);
         }
+
+        scheduler.execute(() -> {
+            if (play.getPlayBehavior() == Play.PlayBehavior.REPLACE_ALL) {
+                clearAll();
+            } else if (play.getPlayBehavior() == Play.PlayBehavior.REPLACE_ENQUEUED) {
+                clearEnqueued();
+            }
+            add(stream);
+        });
     }
 
     public void handleStop() {
-        stop();
-        audioPlayerStateMachine.playbackStopped();
+        scheduler.execute(() -> {
+            stopMedia();
+            audioPlayerStateMachine.playbackStopped();
+        });
     }
 
     public void handleClearQueue(ClearQueue clearQueue) {
-        if (clearQueue.getClearBehavior() == ClearQueue.ClearBehavior.CLEAR_ALL) {
-            audioPlayerStateMachine.clearQueueAll();
-            clearAll();
-        } else {
-            audioPlayerStateMachine.clearQueueEnqueued();
-            clearEnqueued();
-        }
+        scheduler.execute(() -> {
+            if (clearQueue.getClearBehavior() == ClearQueue.ClearBehavior.CLEAR_ALL) {
+                audioPlayerStateMachine.clearQueueAll();
+                clearAll();
+            } else {
+                audioPlayerStateMachine.clearQueueEnqueued();
+                clearEnqueued();
+            }
+        });
     }
 
     public void handleSetVolume(VolumePayload volumePayload) {
         currentVolume = (int) (volumePayload.getVolume() * VLCJ_VOLUME_SCALAR);
-        audioPlayer.getMediaPlayer().setVolume(currentVolume);
+        applyContentVolume();
         controller.sendRequest(
                 RequestFactory.createSpeakerVolumeChangedEvent(getVolume(), isMuted()));
     }
@@ -221,7 +256,7 @@ public class AVSAudioPlayer {
         int adjustVolumeBy = (int) (volumePayload.getVolume() * VLCJ_VOLUME_SCALAR);
         currentVolume = Math.min(VLCJ_MAX_VOLUME,
                 Math.max(VLCJ_MIN_VOLUME, currentVolume + adjustVolumeBy));
-        audioPlayer.getMediaPlayer().setVolume(currentVolume);
+        applyContentVolume();
         controller.sendRequest(
                 RequestFactory.createSpeakerVolumeChangedEvent(getVolume(), isMuted()));
     }
@@ -233,6 +268,30 @@ public class AVSAudioPlayer {
                 .sendRequest(RequestFactory.createSpeakerMuteChangedEvent(getVolume(), isMuted()));
     }
 
+    private void setupMixer() {
+        try {
+            // Opened now so nothing waits for the device the first time it plays
+            mixer.open();
+        } catch (LineUnavailableException e) {
+            log.warn("No output line for the mixer, it will be opened when something plays", e);
+        }
+        loadResources(ALARM_SOUND);
+    }
+
+    /**
+     * Decode MP3 resources now, so {@link #playMp3FromResource(String)} plays them without
+     * decoding them again.
+     */
+    public void loadResources(String... resources) {
+        for (String resource : resources) {
+            try {
+                earcons.load(resource);
+            } catch (IOException e) {
+                log.error("Failed to load {}", resource, e);
+            }
+        }
+    }
+
     private void setupAudioPlayer() {
         audioPlayer = new AudioMediaPlayerComponent();
 
@@ -297,7 +356,8 @@ public class AVSAudioPlayer {
             @Override
             public void paused(MediaPlayer mediaPlayer) {
                 log.debug("paused: {}", mediaPlayer.mrl());
-                if (playbackStartedSuccessully) {
+                if (playbackStartedSuccessully
+                        && (audioPlayerStateMachine.getState() != AudioPlayerState.PAUSED)) {
                     audioPlayerStateMachine.playbackPaused();
                 }
                 isPaused = true;
@@ -305,75 +365,71 @@ public class AVSAudioPlayer {
 
             @Override
             public void finished(MediaPlayer mediaPlayer) {
-                log.info("Finished playing {}", mediaPlayer.mrl());
-                List<String> items = mediaPlayer.subItems();
-                // Remember the url we just tried
-                attemptedUrls.add(mediaPlayer.mrl());
-
-                if ((items.size() > 0) || (streamUrls.size() > 0)) {
-                    // Add to the set of URLs to attempt playback
-                    streamUrls.addAll(items);
-
-                    // Play any url associated with this play item that
-                    // we haven't already tried
-                    for (String mrl : streamUrls) {
-                        if (!attemptedUrls.contains(mrl)) {
-                            log.info("Playing {}", mrl);
-                            mediaPlayer.playMedia(mrl);
-                            return;
-                        }
-                    }
-                }
+                scheduler.execute(() -> mediaFinished(mediaPlayer));
+            }
 
-                // wait for any pending events to finish(playbackStarted/progressReport)
-                while (controller.eventRunning()) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                    }
-                }
+            @Override
+            public void error(MediaPlayer mediaPlayer) {
+                scheduler.execute(() -> mediaFailed(mediaPlayer));
+            }
+        });
+    }
 
-                // remove the item from the queue since it has finished playing
-                playQueue.poll();
+    private void mediaFinished(MediaPlayer mediaPlayer) {
+        log.info("Finished playing {}", mediaPlayer.mrl());
+        List<String> items = mediaPlayer.subItems();
+        // Remember the url we just tried
+        attemptedUrls.add(mediaPlayer.mrl());
 
-                progressReporter.stop();
-                audioPlayerStateMachine.playbackNearlyFinished();
-                audioPlayerStateMachine.playbackFinished();
-
-                // unblock playback now that playbackFinished has been sent
-                waitForPlaybackFinished = false;
-                if (!playQueue.isEmpty()) {
-                    // start playback if it wasn't the last item
-                    startPlayback();
+        if ((items.size() > 0) || (streamUrls.size() > 0)) {
+            // Add to the set of URLs to attempt playback
+            streamUrls.addAll(items);
+
+            // Play any url associated with this play item that
+            // we haven't already tried
+            for (String mrl : streamUrls) {
+                if (!attemptedUrls.contains(mrl)) {
+                    log.info("Playing {}", mrl);
+                    mediaPlayer.playMedia(mrl);
+                    return;
                 }
             }
+        }
 
-            @Override
-            public void error(MediaPlayer mediaPlayer) {
-                log.error("Error playing: {}", mediaPlayer.mrl());
-
-                attemptedUrls.add(mediaPlayer.mrl());
-                // If there are any urls left to try, don't throw an error
-                for (String mrl : streamUrls) {
-                    if (!attemptedUrls.contains(mrl)) {
-                        mediaPlayer.playMedia(mrl);
-                        return;
-                    }
-                }
+        // Events in a namespace are sent in order, so playbackStarted and any progress
+        // reports are already ahead of playbackFinished
 
-                // wait for any pending events to finish(playbackStarted/progressReport)
-                while (controller.eventRunning()) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                    }
-                }
-                progressReporter.stop();
-                playQueue.clear();
-                audioPlayerStateMachine.playbackFailed();
+        // remove the item from the queue since it has finished playing
+        playQueue.poll();
+        contentPaused = false;
+
+        progressReporter.stop();
+        audioPlayerStateMachine.playbackNearlyFinished();
+        audioPlayerStateMachine.playbackFinished();
+
+        // start playback if it wasn't the last item
+        playbackPending = !playQueue.isEmpty();
+        updateFocus();
+    }
+
+    private void mediaFailed(MediaPlayer mediaPlayer) {
+        log.error("Error playing: {}", mediaPlayer.mrl());
 
+        attemptedUrls.add(mediaPlayer.mrl());
+        // If there are any urls left to try, don't throw an error
+        for (String mrl : streamUrls) {
+            if (!attemptedUrls.contains(mrl)) {
+                mediaPlayer.playMedia(mrl);
+                return;
             }
-        });
+        }
+
+        progressReporter.stop();
+        playQueue.clear();
+        playbackPending = false;
+        contentPaused = false;
+        audioPlayerStateMachine.playbackFailed();
+        updateFocus();
     }
 
     /**
@@ -388,7 +444,7 @@ public class AVSAudioPlayer {
      */
     public boolean isPlayingMP3Resource()
     {
-    	return resPlayState == ResourcePlayState.PLAYING;
+    	return earcons.isPlayingOneShot();
     }
 
     /**
@@ -407,41 +463,40 @@ public class AVSAudioPlayer {
     }
 
     /**
-     * Interrupt all audio - Alarms, speech, and media
+     * Interrupt all audio - Alarms, speech, and media. The device holds the focus until
+     * {@link #resumeAllAlexaOutput()}, except for speech that arrives in the meantime.
      */
     public void interruptAllAlexaOutput() {
-        if (isSpeaking()) {
-            // Then we are interrupting some speech
-            interruptCurrentlyPlaying();
-        }
-        speakQueue.clear();
-
-        interruptAlertsAndContent();
+        scheduler.execute(() -> {
+            // The speech queue is cleared, so this speech is the last to finish
+            speakQueue.clear();
+            speechPlayer.stop();
+            dialogHeld = true;
+            updateFocus();
+        });
     }
 
     /**
-     * Interrupt only alerts and content
+     * Silence alerts and media while the microphone is open, rather than duck them as for
+     * Alexa's speech, so they aren't recorded.
      */
-    private void interruptAlertsAndContent() {
-        if (isAlarming()) {
-            alertState = AlertState.INTERRUPTED;
-        }
-
-        interruptContent();
+    public void setListening(boolean isListening) {
+        scheduler.execute(() -> {
+            listening = isListening;
+            updateFocus();
+        });
     }
 
     /**
-     * Interrupt only content
+     * Stop Alexa's speech and drop the speech queued behind it, without holding the focus, e.g.
+     * for a "stop" outside of any dialog.
      */
-    private void interruptContent() {
-
-        synchronized (audioPlayer.getMediaPlayer()) {
-            if (!playQueue.isEmpty() && (stopOffset == -1)
-                    && audioPlayer.getMediaPlayer().isPlaying()) {
-                progressReporter.pause();
-                audioPlayer.getMediaPlayer().pause();
-            }
-        }
+    public void stopSpeech() {
+        scheduler.execute(() -> {
+            // The speech queue is cleared, so this speech is the last to finish
+            speakQueue.clear();
+            speechPlayer.stop();
+        });
     }
 
     /**
@@ -449,34 +504,61 @@ public class AVSAudioPlayer {
      * resuming speech is not necessary
      */
     public void resumeAllAlexaOutput() {
-        if (speakQueue.isEmpty() && !resumeAlerts()) {
-            resumeContent();
+        scheduler.execute(() -> {
+            dialogHeld = false;
+            updateFocus();
+        });
+    }
+
+    /**
+     * Give the focus to the highest priority channel with something to play, and the others the
+     * policy of their channel. Called on the loop whenever what a channel has to play changes.
+     */
+    private void updateFocus() {
+        focus.setActive(Channel.LISTENING, listening);
+        focus.setActive(Channel.DIALOG, dialogHeld || (currentSpeech != null));
+        focus.setActive(Channel.ALERTS, alertState != AlertState.FINISHED);
+        focus.setActive(Channel.CONTENT, !playQueue.isEmpty() && (stopOffset == -1));
+        focus.update();
+    }
+
+    /**
+     * Set the media player's volume to the user's volume, ducked if another channel has the
+     * focus.
+     */
+    private void applyContentVolume() {
+        synchronized (audioPlayer.getMediaPlayer()) {
+            audioPlayer.getMediaPlayer().setVolume(Math.round(currentVolume * contentGain));
         }
     }
 
     /**
-     * Resume alert audio
+     * Interrupt only content
      */
-    private boolean resumeAlerts() {
-        if (alertState == AlertState.INTERRUPTED) {
-            startAlert();
-            return true;
+    private void interruptContent() {
+        synchronized (audioPlayer.getMediaPlayer()) {
+            if (!playQueue.isEmpty() && (stopOffset == -1)
+                    && audioPlayer.getMediaPlayer().isPlaying()) {
+                progressReporter.pause();
+                audioPlayer.getMediaPlayer().pause();
+                contentPaused = true;
+            }
         }
-        return false;
     }
 
     /**
-     * Resume any content
+     * Resume content paused by {@link #interruptContent()}
      */
     private void resumeContent() {
         synchronized (audioPlayer.getMediaPlayer()) {
-            if (!playQueue.isEmpty() && (stopOffset == -1)
+            if (contentPaused && !playQueue.isEmpty() && (stopOffset == -1)
                     && !audioPlayer.getMediaPlayer().isPlaying()) {
                 progressReporter.resume();
                 // Pause toggles the pause state of the media player, if it was previously paused it
                 // will be resumed.
                 audioPlayer.getMediaPlayer().pause();
             }
+            contentPaused = false;
         }
     }
 
@@ -496,59 +578,36 @@ public class AVSAudioPlayer {
             playQueue.add(stream);
         }
 
-        if (startPlaying) {
-            startPlayback();
+        if (startPlaying && !playQueue.isEmpty()) {
+            playbackPending = true;
+            updateFocus();
         }
     }
 
     /**
-     * Play media in the play queue
+     * Play the media at the head of the play queue. Only called on the loop when content has the
+     * focus, so there is no speech or alert to wait for.
      */
     private void startPlayback() {
-        if (playQueue.isEmpty()) {
+        playbackPending = false;
+        Stream stream = playQueue.peek();
+
+        if (stream == null) {
+            // if a stop/clearQueue came down before we started
             return;
         }
 
-        Thread thread = new Thread() {
-
-            @Override
-            public void run() {
-                // wait for any speech to complete before starting playback
-                // also wait for playbackFinished to be called after getNextItem
-                while (!speakQueue.isEmpty() || waitForPlaybackFinished) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        log.error("Interupted while waiting to start playback", e);
-                    }
-                }
-
-                Stream stream = playQueue.peek();
-
-                if (stream == null) {
-                    // if a stop/clearQueue came down before we started
-                    return;
-                }
-
-                latestStreamToken = stream.getToken();
-
-                if (!playItem(stream.getUrl(), stream.getOffsetInMilliseconds())) {
-                    // an error will be reported from the vlcj listener
-                    return;
-                }
+        latestStreamToken = stream.getToken();
 
-                if (stream.getProgressReportRequired()) {
-                    progressReporter.stop();
-                    progressReporter.start(stream.getProgressReport());
-                }
+        if (!playItem(stream.getUrl(), stream.getOffsetInMilliseconds())) {
+            // an error will be reported from the vlcj listener
+            return;
+        }
 
-                if (isSpeaking() || isAlarming()) {
-                    // pause if Alexa is speaking or there is an active alert.
-                    interruptContent();
-                }
-            }
-        };
-        thread.start();
+        if (stream.getProgressReportRequired()) {
+            progressReporter.stop();
+            progressReporter.start(stream.getProgressReport());
+        }
     }
 
     /**
@@ -574,7 +633,7 @@ public class AVSAudioPlayer {
             log.debug("playing {}", url);
 
             if (audioPlayer.getMediaPlayer().startMedia(url)) {
-                audioPlayer.getMediaPlayer().setVolume(currentVolume);
+                applyContentVolume();
                 audioPlayer.getMediaPlayer().mute(currentlyMuted);
                 if (offset > 0) {
                     audioPlayer.getMediaPlayer().setTime(offset);
@@ -586,11 +645,44 @@ public class AVSAudioPlayer {
         }
     }
 
+    /**
+     * Stop everything and release the threads and output line the player holds, e.g. on exit.
+     */
+    public void close() {
+        speechPlayer.close();
+    }
+
+    /**
+     * Pause the media for the user, e.g. for a "pause" recognized on the device, and tell AVS. It
+     * stays paused when another channel gives the focus back, until a directive plays or stops it.
+     */
+    public void pause() {
+        scheduler.execute(() -> {
+            synchronized (audioPlayer.getMediaPlayer()) {
+                if (!playQueue.isEmpty() && (stopOffset == -1)
+                        && audioPlayer.getMediaPlayer().isPlaying()) {
+                    progressReporter.pause();
+                    // Before the player's own paused event, which then finds it already paused
+                    audioPlayerStateMachine.playbackPaused();
+                    audioPlayer.getMediaPlayer().pause();
+                }
+                // Media paused for the focus is already paused, and is no longer resumed
+                contentPaused = false;
+            }
+        });
+    }
+
     /**
      * Stop all media playback
      */
     public void stop() {
+        scheduler.executeAndWait(this::stopMedia);
+    }
+
+    private void stopMedia() {
         synchronized (audioPlayer.getMediaPlayer()) {
+            playbackPending = false;
+            contentPaused = false;
             if (!playQueue.isEmpty() && (stopOffset == -1)) {
                 stopOffset = getProgress();
 
@@ -598,48 +690,41 @@ public class AVSAudioPlayer {
                 audioPlayer.getMediaPlayer().stop();
             }
         }
+        updateFocus();
     }
 
     /**
-     * Play items from the speech play queue
+     * Play items from the speech play queue. Only called on the loop.
      */
     private void startSpeech() {
-        notifyAlexaSpeechStarted();
         final SpeakItem speak = speakQueue.peek();
+        currentSpeech = speak;
+        notifyAlexaSpeechStarted();
         speechState = SpeechState.PLAYING;
         latestToken = speak.getToken();
 
         controller
                 .sendRequest(RequestFactory.createSpeechSynthesizerSpeechStartedEvent(latestToken));
 
-        interruptAlertsAndContent();
+        updateFocus();
 
-        Thread thread = new Thread() {
-            @Override
-            public void run() {
-                synchronized (playLock) {
-                    try {
-                        InputStream inpStream = speak.getAudio();
-                        play(inpStream);
-                        while (inpStream.available() > 0) {
-                            playLock.wait(TIMEOUT_IN_MS);
-                        }
-                    } catch (InterruptedException | IOException e) {
-                    }
-
-                    finishedSpeechItem();
-                }
+        scheduler.executeOutput(() -> {
+            try {
+                // Returns once the last of the speech has been played out
+                speechPlayer.play(speak.getAudio());
+            } catch (LineUnavailableException | IOException e) {
+                log.error("Failed to play speech", e);
             }
-        };
-        thread.start();
+        }, () -> finishedSpeechItem(speak));
     }
 
     /**
-     * When a speech item is finished, perform the necessary actions
+     * Called on the loop once the speech has been played, or stopped.
      */
-    private void finishedSpeechItem() {
-        // remove the finished item
-        speakQueue.poll();
+    private void finishedSpeechItem(SpeakItem speak) {
+        currentSpeech = null;
+        // remove the finished item, unless the queue was cleared while it played
+        speakQueue.remove(speak);
 
         if (speakQueue.isEmpty()) {
             speechState = SpeechState.FINISHED;
@@ -647,6 +732,9 @@ public class AVSAudioPlayer {
                     RequestFactory.createSpeechSynthesizerSpeechFinishedEvent(latestToken));
 
             notifyAlexaSpeechFinished();
+            log.debug("{}; {}; {}", scheduler.getStats(), speechPlayer.getStats(),
+                    mixer.getStats());
+            updateFocus();
         } else {
             // if not done start the next speech
             startSpeech();
@@ -655,6 +743,7 @@ public class AVSAudioPlayer {
 
     /**
      * Clear the queue of items to play, but keep the most recent item.
+     * Only called on the scheduler's loop.
      */
     public void clearEnqueued() {
         // save the top item
@@ -668,10 +757,11 @@ public class AVSAudioPlayer {
 
     /**
      * Clear all media scheduled to play, including items currently playing
+     * Only called on the scheduler's loop.
      */
     public void clearAll() {
         // stop playback and clear all
-        stop();
+        stopMedia();
         playQueue.clear();
     }
 
@@ -726,7 +816,8 @@ public class AVSAudioPlayer {
      */
     public SpeechStatePayload getSpeechState() {
         String contentId = latestToken;
-        return new SpeechStatePayload(contentId, getPlayerPosition(), speechState.name());
+        return new SpeechStatePayload(contentId, speechPlayer.getPositionMillis(),
+                speechState.name());
     }
 
     public VolumeStatePayload getVolumeState() {
@@ -741,129 +832,105 @@ public class AVSAudioPlayer {
         return currentlyMuted;
     }
 
-    /**
-     * Returns the offset in milliseconds of the default audio player. If there is no player
-     * position, this function defaults to 0
-     *
-     * @return Player offset in milliseconds
-     */
-    private synchronized long getPlayerPosition() {
-        long offsetInMilliseconds = 0;
-        if (speaker != null) {
-            offsetInMilliseconds = speaker.getPosition();
-        }
-        return offsetInMilliseconds;
-    }
-
     /**
      * plays MP3 data from a resource asynchronously. will stop any previous playback and start the
-     * new audio
+     * new audio. Earcons are played directly rather than on the loop, so they start as soon as
+     * they are asked for.
      */
-    public synchronized void playMp3FromResource(String resource) {
-        final InputStream inpStream = resLoader.getResourceAsStream(resource);
-        play(inpStream);
+    public void playMp3FromResource(String resource) {
+        if (!earcons.isLoaded(resource)) {
+            loadResources(resource);
+        }
+        try {
+            earcons.play(resource);
+        } catch (LineUnavailableException e) {
+            log.warn("No output line, {} won't be played", resource, e);
+        }
     }
 
     /**
-     * Play the alarm sound
+     * Play the alarm sound, once nothing with a higher priority is playing
      */
     public void startAlert() {
-        if (!isAlarming()) {
-            interruptContent();
-            if (isSpeaking()) {
-                // alerts are in the background when Alexa is speaking
+        scheduler.execute(() -> {
+            if (alertState == AlertState.FINISHED) {
                 alertState = AlertState.INTERRUPTED;
-            } else {
-                alertState = AlertState.PLAYING;
-
-                alarmThread = new Thread() {
-                    @Override
-                    public void run() {
-                        while (isAlarming() && !isSpeaking()) {
-                            if (Thread.interrupted()) {
-                                break;
-                            }
-                            InputStream inpStream = resLoader.getResourceAsStream("res/alarm.mp3");
-                            synchronized (playLock) {
-                                try {
-                                    play(inpStream);
-                                    while (inpStream.available() > 0) {
-                                        playLock.wait(TIMEOUT_IN_MS);
-                                    }
-                                } catch (InterruptedException | IOException e) {
-                                }
-                            }
-                        }
-                    }
-                };
-                alarmThread.start();
+                updateFocus();
             }
-        }
+        });
     }
 
     /**
      * Stop the alarm
      */
     public void stopAlert() {
-        interruptCurrentlyPlaying();
-        alertState = AlertState.FINISHED;
+        scheduler.execute(() -> {
+            alertState = AlertState.FINISHED;
+            earcons.stopLoop();
+            updateFocus();
+        });
     }
 
     /**
-     * Interrupt whatever audio is currently playing through the default audio player
+     * Loop the alarm sound now that alerts have the focus. Only called on the loop.
      */
-    private synchronized void interruptCurrentlyPlaying() {
-        if (playThread != null) {
-            playThread.interrupt();
+    private void startAlarmSound() {
+        if (isAlarming()) {
+            return;
+        }
+        alertState = AlertState.PLAYING;
+        try {
+            if (!earcons.loop(ALARM_SOUND)) {
+                log.warn("Alarm sound isn't loaded, the alert will be silent");
+            }
+        } catch (LineUnavailableException e) {
+            log.warn("No output line, the alert will be silent", e);
         }
-        stopPlayer();
     }
 
     /**
-     * Ends playback of the default audio player
+     * Plays the alarm while alerts have the focus, or are ducked, and stops it otherwise.
      */
-    private synchronized void stopPlayer() {
-        if (speaker != null) {
-            speaker.close();
-            speaker = null;
-            if (isSpeaking()) {
-                speechState = SpeechState.FINISHED;
-                notifyAlexaSpeechFinished();
+    private class AlertsOutput implements ChannelOutput {
+        @Override
+        public void onFocusChanged(FocusState state) {
+            if (state != FocusState.PAUSED) {
+                startAlarmSound();
+            } else if (isAlarming()) {
+                // alerts are in the background when Alexa is speaking
+                alertState = AlertState.INTERRUPTED;
+                earcons.stopLoop();
             }
         }
-    }
 
-    /**
-     * Play a generic input stream through the default audio player without blocking
-     */
-    private synchronized void play(final InputStream inpStream) {
-        play(inpStream, false);
+        @Override
+        public void setGain(float gain) {
+            earcons.setLoopGain(gain);
+        }
     }
 
     /**
-     * Play a generic input stream through the default audio player
+     * Starts the media once it has the focus, and keeps it playing, ducked, while another channel
+     * has the focus unless content's policy is to pause.
      */
-    private synchronized void play(final InputStream inpStream, boolean block) {
-        playThread = new Thread() {
-            @Override
-            public void run() 
-            {
-            	resPlayState = ResourcePlayState.PLAYING;
-                synchronized (playLock) {
-                    try {
-                        speaker = new Player(inpStream);
-                        speaker.play();
-                    } catch (Exception e) {
-                        log.error("An error occurred while trying to play audio", e);
-                    } finally {
-                        IOUtils.closeQuietly(inpStream);
-                    }
-                    playLock.notifyAll();
-                }
-            	resPlayState = ResourcePlayState.FINISHED;
+    private class ContentOutput implements ChannelOutput {
+        @Override
+        public void onFocusChanged(FocusState state) {
+            if (state == FocusState.PAUSED) {
+                interruptContent();
+            } else if ((state == FocusState.FOREGROUND) && playbackPending) {
+                startPlayback();
+            } else if (!playbackPending) {
+                // Media queued while another channel has the focus waits for it
+                resumeContent();
             }
-        };
-        playThread.start();
+        }
+
+        @Override
+        public void setGain(float gain) {
+            contentGain = gain;
+            applyContentVolume();
+        }
     }
 
     private void notifyAlexaSpeechStarted() {
@@ -10,6 +10,8 @@ package com.amazon.alexa.avs;
 
 import com.amazon.alexa.avs.AVSAudioPlayer.AlexaSpeechListener;
 import com.amazon.alexa.avs.AlertManager.ResultListener;
+import com.amazon.alexa.avs.CapabilityAgent.Concurrency;
+import com.amazon.alexa.avs.CapabilityAgentRegistry.DispatchLatency;
 import com.amazon.alexa.avs.auth.AccessTokenListener;
 import com.amazon.alexa.avs.exception.DirectiveHandlingException;
 import com.amazon.alexa.avs.exception.DirectiveHandlingException.ExceptionType;
@@ -24,21 +26,23 @@ import com.amazon.alexa.avs.message.response.alerts.SetAlert;
 import com.amazon.alexa.avs.message.response.alerts.SetAlert.AlertType;
 import com.amazon.alexa.avs.message.response.audioplayer.ClearQueue;
 import com.amazon.alexa.avs.message.response.audioplayer.Play;
+import com.amazon.alexa.avs.message.response.speaker.AdjustVolume;
 import com.amazon.alexa.avs.message.response.speaker.SetMute;
 import com.amazon.alexa.avs.message.response.speaker.VolumePayload;
 import com.amazon.alexa.avs.message.response.speechsynthesizer.Speak;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -59,18 +63,19 @@ public class AVSController
     private static final String ERROR_SOUND = "res/error.mp3";
     private static final String STARTUP_SOUND = "res/startup.mp3";
     private static final String HELLO_SOUND = "res/hello.mp3";
-    private static final SpeechProfile PROFILE = SpeechProfile.CLOSE_TALK;
     private static final String FORMAT = "AUDIO_L16_RATE_16000_CHANNELS_1";
 
     private static final Logger log = LoggerFactory.getLogger(AVSController.class);
     private static final long MILLISECONDS_PER_SECOND = 1000;
     private static final long USER_INACTIVITY_REPORT_PERIOD_HOURS = 1;
+    // How much a local volume command changes the volume, on the AVS 0 to 100 scale
+    private static final long LOCAL_VOLUME_STEP = 10;
 
     private final AVSAudioPlayer player;
-    private BlockableDirectiveThread dependentDirectiveThread;
-    private BlockableDirectiveThread independentDirectiveThread;
-    private BlockingQueue<Directive> dependentQueue;
-    private BlockingQueue<Directive> independentQueue;
+    private static final String DEPENDENT_LANE = "dependent";
+    private static final String INDEPENDENT_LANE = "independent";
+    private final DirectiveExecutor directiveExecutor;
+    private final DirectiveExecutor.Lane dependentLane;
     public SpeechRequestAudioPlayerPauseController speechRequestAudioPlayerPauseController;
 
     private ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1);
@@ -79,6 +84,15 @@ public class AVSController
 
     private final Set<ExpectSpeechListener> expectSpeechListeners;
 
+    private final CapabilityAgentRegistry capabilityAgents = new CapabilityAgentRegistry();
+
+    // Sent with each Recognize, and whether AVS or the device ends the recording follows from it
+    private volatile SpeechProfile speechProfile = SpeechProfile.CLOSE_TALK;
+
+    // The last command acted on locally and the dialog it was heard in
+    private volatile LocalCommand localCommand;
+    private volatile String localCommandDialogRequestId;
+
     public AVSController(ExpectSpeechListener listenHandler, AVSAudioPlayerFactory audioFactory,
             AlertManagerFactory alarmFactory, AVSClientFactory avsClientFactory,
             DialogRequestIdAuthority dialogRequestIdAuthority) throws Exception {
@@ -87,23 +101,26 @@ public class AVSController
                 new MicrophoneLineFactory());
         this.player = audioFactory.getAudioPlayer(this);
         this.player.registerAlexaSpeechListener(this);
+        this.player.loadResources(START_SOUND, END_SOUND, ERROR_SOUND, STARTUP_SOUND, HELLO_SOUND);
         this.dialogRequestIdAuthority = dialogRequestIdAuthority;
         speechRequestAudioPlayerPauseController =
                 new SpeechRequestAudioPlayerPauseController(player);
 
         expectSpeechListeners = new HashSet<ExpectSpeechListener>(
                 Arrays.asList(listenHandler, speechRequestAudioPlayerPauseController));
-        dependentQueue = new LinkedBlockingDeque<>();
-
-        independentQueue = new LinkedBlockingDeque<>();
+        directiveExecutor = new DirectiveExecutor(this, dialogRequestIdAuthority, DEPENDENT_LANE,
+                INDEPENDENT_LANE);
+        dependentLane = directiveExecutor.getLane(DEPENDENT_LANE);
 
-        DirectiveEnqueuer directiveEnqueuer =
-                new DirectiveEnqueuer(dialogRequestIdAuthority, dependentQueue, independentQueue);
+        DirectiveEnqueuer directiveEnqueuer = new DirectiveEnqueuer(dialogRequestIdAuthority,
+                dependentLane, directiveExecutor.getLane(INDEPENDENT_LANE));
 
         avsClient = avsClientFactory.getAVSClient(directiveEnqueuer, this);
 
         alertManager = alarmFactory.getAlertManager(this, this, AlertsFileDataStore.getInstance());
 
+        registerCapabilityAgents();
+
         // Ensure that we have attempted to finish loading all alarms from file before sending
         // synchronize state
         alertManager.loadFromDisk(new ResultListener() {
@@ -123,15 +140,12 @@ public class AVSController
             @Override
             public void run() {
                 player.stop();
+                player.close();
                 avsClient.shutdown();
+                directiveExecutor.shutdown();
             }
         });
 
-        dependentDirectiveThread =
-                new BlockableDirectiveThread(dependentQueue, this, "DependentDirectiveThread");
-        independentDirectiveThread =
-                new BlockableDirectiveThread(independentQueue, this, "IndependentDirectiveThread");
-
         lastUserInteractionTimestampSeconds =
                 new AtomicLong(System.currentTimeMillis() / MILLISECONDS_PER_SECOND);
         scheduledExecutor.scheduleAtFixedRate(new UserInactivityReport(),
@@ -140,8 +154,7 @@ public class AVSController
     }
 
     public void startHandlingDirectives() {
-        dependentDirectiveThread.start();
-        independentDirectiveThread.start();
+        directiveExecutor.start();
     }
 
     public void sendSynchronizeStateEvent() {
@@ -157,22 +170,34 @@ public class AVSController
     // start the recording process and send to server
     // takes an optional RMS callback and an optional request callback
     public void startRecording(RecordingRMSListener rmsListener, RequestListener requestListener) {
+        startRecording(rmsListener, requestListener, microphone.getSampleIndex());
+    }
+
+    /**
+     * Start recording from the given capture sample. This only reaches back into the capture
+     * history when the microphone is capturing continuously, otherwise recording starts now.
+     */
+    public void startRecording(RecordingRMSListener rmsListener, RequestListener requestListener,
+            long startSampleIndex) {
+        InputStream inputStream = null;
         try {
             String dialogRequestId = dialogRequestIdAuthority.createNewDialogRequestId();
 
             RequestBody body = RequestFactory.createSpeechRegonizerRecognizeRequest(dialogRequestId,
-                    PROFILE, FORMAT, player.getPlaybackState(), player.getSpeechState(),
+                    speechProfile, FORMAT, player.getPlaybackState(), player.getSpeechState(),
                     alertManager.getState(), player.getVolumeState());
 
-            dependentQueue.clear();
+            directiveExecutor.cancelStaleDirectives();
 
-            InputStream inputStream = microphone.getAudioInputStream(this, rmsListener);
+            inputStream = microphone.getAudioInputStream(this, rmsListener, startSampleIndex);
 
             avsClient.sendEvent(body, inputStream, requestListener, AUDIO_TYPE);
 
             speechRequestAudioPlayerPauseController.startSpeechRequest();
 
         } catch (Exception e) {
+            // Not sent, so nothing else will read the recording
+            IOUtils.closeQuietly(inputStream);
             player.playMp3FromResource(ERROR_SOUND);
             requestListener.onRequestError(e);
         }
@@ -213,6 +238,78 @@ public class AVSController
         }
     }
 
+    /**
+     * Stop everything Alexa is playing right away without a round trip to the cloud, e.g. when
+     * "stop" is spotted locally. Directives waiting behind the current speech are dropped, active
+     * alerts are stopped, and speech and content are stopped. The usual events still tell AVS.
+     */
+    public void stopAllOutput() {
+        dependentLane.cancelAll();
+        if (alertManager.hasActiveAlerts()) {
+            alertManager.stopActiveAlert();
+        }
+        // Nothing else wants the focus, so speech is stopped without holding the dialog channel
+        player.stopSpeech();
+        player.stop();
+    }
+
+    /**
+     * Act on a command recognized on the device, without waiting for the cloud. The cloud hears
+     * the same request, so a volume change it sends back for this dialog is dropped instead of
+     * being applied twice, and so is a Stop for a pause, which would stop the paused media. Its
+     * other directives are idempotent with the local action, or are the cloud's better answer,
+     * and are handled as usual.
+     */
+    public void handleLocalCommand(LocalCommand command) {
+        localCommandDialogRequestId = dialogRequestIdAuthority.getCurrentDialogRequestId();
+        localCommand = command;
+        log.info("Handling local command {}", command);
+        switch (command) {
+            case STOP:
+                stopAllOutput();
+                break;
+            case PAUSE:
+                if (alertManager.hasActiveAlerts()) {
+                    alertManager.stopActiveAlert();
+                }
+                player.pause();
+                break;
+            case VOLUME_UP:
+            case VOLUME_DOWN:
+                AdjustVolume adjustVolume = new AdjustVolume();
+                adjustVolume.setVolume(
+                        (command == LocalCommand.VOLUME_UP) ? LOCAL_VOLUME_STEP : -LOCAL_VOLUME_STEP);
+                player.handleAdjustVolume(adjustVolume);
+                break;
+            default:
+                log.error("Failed to handle local command {}", command);
+        }
+    }
+
+    private void handleAdjustVolume(Directive directive) {
+        LocalCommand handled = localCommand;
+        if ((handled != null) && handled.isVolumeChange() && isLocalCommandDialog(directive)) {
+            log.info("Ignoring {}.{}, the volume was already changed locally",
+                    directive.getNamespace(), directive.getName());
+            return;
+        }
+        player.handleAdjustVolume((VolumePayload) directive.getPayload());
+    }
+
+    private void handleStop(Directive directive) {
+        if ((localCommand == LocalCommand.PAUSE) && isLocalCommandDialog(directive)) {
+            log.info("Ignoring {}.{}, the media was already paused locally",
+                    directive.getNamespace(), directive.getName());
+            return;
+        }
+        player.handleStop();
+    }
+
+    private boolean isLocalCommandDialog(Directive directive) {
+        return (directive.getDialogRequestId() != null)
+                && directive.getDialogRequestId().equals(localCommandDialogRequestId);
+    }
+
     public void sendRequest(RequestBody body) {
         eventRunning = true;
         try {
@@ -227,8 +324,12 @@ public class AVSController
         return eventRunning;
     }
 
+    /**
+     * Routes the directive to its capability agent. This isn't synchronized, so a directive only
+     * waits for others handled by the same serialized agent.
+     */
     @Override
-    public synchronized void dispatch(Directive directive) {
+    public void dispatch(Directive directive) {
         String directiveNamespace = directive.getNamespace();
 
         String directiveName = directive.getName();
@@ -237,21 +338,12 @@ public class AVSController
             speechRequestAudioPlayerPauseController.dispatchDirective();
         }
         try {
-            if (directiveNamespace.equals(AVSAPIConstants.SpeechRecognizer.NAMESPACE)) {
-                handleSpeechRecognizerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.SpeechSynthesizer.NAMESPACE)) {
-                handleSpeechSynthesizerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.AudioPlayer.NAMESPACE)) {
-                handleAudioPlayerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.Alerts.NAMESPACE)) {
-                handleAlertsDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.Speaker.NAMESPACE)) {
-                handleSpeakerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.System.NAMESPACE)) {
-                handleSystemDirective(directive);
-            } else {
-                throw new DirectiveHandlingException(ExceptionType.UNSUPPORTED_OPERATION,
-                        "No device side component to handle the directive.");
+            if (!capabilityAgents.dispatch(directive)) {
+                if (!capabilityAgents.hasNamespace(directiveNamespace)) {
+                    throw new DirectiveHandlingException(ExceptionType.UNSUPPORTED_OPERATION,
+                            "No device side component to handle the directive.");
+                }
+                log.warn("Ignoring unknown directive: {}.{}", directiveNamespace, directiveName);
             }
         } catch (DirectiveHandlingException e) {
             sendExceptionEncounteredEvent(directive.getRawMessage(), e.getType(), e);
@@ -263,6 +355,73 @@ public class AVSController
 
     }
 
+    /**
+     * Add an agent for more directives, or replace the one handling them.
+     */
+    public void registerCapabilityAgent(CapabilityAgent agent) {
+        capabilityAgents.register(agent);
+    }
+
+    /**
+     * @return the dispatch latency of each kind of directive handled so far, by
+     *         "namespace.name".
+     */
+    public Map<String, DispatchLatency> getDispatchLatencies() {
+        return capabilityAgents.getDispatchLatencies();
+    }
+
+    /**
+     * @return the lanes directives are dispatched in, with their queue depth and wait times.
+     */
+    public Collection<DirectiveExecutor.Lane> getDirectiveLanes() {
+        return directiveExecutor.getLanes();
+    }
+
+    private void registerCapabilityAgents() {
+        // AudioPlayer and SpeechSynthesizer share the audio player, so they are serialized
+        // together. The lock isn't the player itself, which synchronizes earcon playback.
+        Object audioPlayerLock = new Object();
+        capabilityAgents.register(new CapabilityAgent(AVSAPIConstants.AudioPlayer.NAMESPACE,
+                Concurrency.SERIALIZED, audioPlayerLock)
+                        .handles(AVSAPIConstants.AudioPlayer.Directives.Play.NAME,
+                                d -> player.handlePlay((Play) d.getPayload()))
+                        .handles(AVSAPIConstants.AudioPlayer.Directives.Stop.NAME,
+                                this::handleStop)
+                        .handles(AVSAPIConstants.AudioPlayer.Directives.ClearQueue.NAME,
+                                d -> player.handleClearQueue((ClearQueue) d.getPayload())));
+        capabilityAgents.register(new CapabilityAgent(AVSAPIConstants.SpeechSynthesizer.NAMESPACE,
+                Concurrency.SERIALIZED, audioPlayerLock)
+                        .handles(AVSAPIConstants.SpeechSynthesizer.Directives.Speak.NAME,
+                                d -> player.handleSpeak((Speak) d.getPayload())));
+        capabilityAgents.register(new CapabilityAgent(AVSAPIConstants.Speaker.NAMESPACE,
+                Concurrency.SERIALIZED)
+                        .handles(AVSAPIConstants.Speaker.Directives.SetVolume.NAME,
+                                d -> player.handleSetVolume((VolumePayload) d.getPayload()))
+                        .handles(AVSAPIConstants.Speaker.Directives.AdjustVolume.NAME,
+                                this::handleAdjustVolume)
+                        .handles(AVSAPIConstants.Speaker.Directives.SetMute.NAME,
+                                d -> player.handleSetMute((SetMute) d.getPayload())));
+        capabilityAgents.register(new CapabilityAgent(AVSAPIConstants.Alerts.NAMESPACE,
+                Concurrency.SERIALIZED)
+                        .handles(AVSAPIConstants.Alerts.Directives.SetAlert.NAME,
+                                d -> handleSetAlert((SetAlert) d.getPayload()))
+                        .handles(AVSAPIConstants.Alerts.Directives.DeleteAlert.NAME,
+                                d -> alertManager.delete(((DeleteAlert) d.getPayload()).getToken())));
+        // If your device cannot handle automatically starting to listen, you must
+        // implement a listen timeout event, as described here:
+        // https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/rest/speechrecognizer-listentimeout-request
+        capabilityAgents.register(new CapabilityAgent(AVSAPIConstants.SpeechRecognizer.NAMESPACE,
+                Concurrency.CONCURRENT)
+                        .handles(AVSAPIConstants.SpeechRecognizer.Directives.ExpectSpeech.NAME,
+                                d -> notifyExpectSpeechDirective())
+                        .handles(AVSAPIConstants.SpeechRecognizer.Directives.StopCapture.NAME,
+                                this::handleStopCapture));
+        capabilityAgents.register(new CapabilityAgent(AVSAPIConstants.System.NAMESPACE,
+                Concurrency.CONCURRENT)
+                        .handles(AVSAPIConstants.System.Directives.ResetUserInactivity.NAME,
+                                d -> onUserActivity()));
+    }
+
     private void sendExceptionEncounteredEvent(String directiveJson, ExceptionType type,
             Exception e) {
         sendRequest(RequestFactory.createSystemExceptionEncounteredEvent(directiveJson, type,
@@ -271,101 +430,99 @@ public class AVSController
         log.error("{} error handling directive: {}", type, directiveJson, e);
     }
 
-    private void handleAudioPlayerDirective(Directive directive) throws DirectiveHandlingException {
-        String directiveName = directive.getName();
-        if (directiveName.equals(AVSAPIConstants.AudioPlayer.Directives.Play.NAME)) {
-            player.handlePlay((Play) directive.getPayload());
-        } else if (directiveName.equals(AVSAPIConstants.AudioPlayer.Directives.Stop.NAME)) {
-            player.handleStop();
-        } else if (directiveName.equals(AVSAPIConstants.AudioPlayer.Directives.ClearQueue.NAME)) {
-            player.handleClearQueue((ClearQueue) directive.getPayload());
+    private void handleSetAlert(SetAlert payload) {
+        String alertToken = payload.getToken();
+        ZonedDateTime scheduledTime = payload.getScheduledTime();
+        AlertType type = payload.getType();
+
+        if (alertManager.hasAlert(alertToken)) {
+            AlertScheduler scheduler = alertManager.getScheduler(alertToken);
+            if (scheduler.getAlert().getScheduledTime().equals(scheduledTime)) {
+                return;
+            } else {
+                scheduler.cancel();
+            }
         }
 
+        Alert alert = new Alert(alertToken, type, scheduledTime);
+        alertManager.add(alert);
     }
 
-    private void handleSpeechSynthesizerDirective(Directive directive)
-            throws DirectiveHandlingException {
-        if (directive.getName().equals(AVSAPIConstants.SpeechSynthesizer.Directives.Speak.NAME)) {
-            player.handleSpeak((Speak) directive.getPayload());
+    /**
+     * AVS heard the end of speech of a cloud endpointed recording, so stop streaming it now.
+     */
+    private void handleStopCapture(Directive directive) {
+        if (!dialogRequestIdAuthority.isCurrentDialogRequestId(directive.getDialogRequestId())
+                || !microphone.isRecording()) {
+            log.info("Ignoring StopCapture for a recording that already stopped");
+            return;
+        }
+        stopRecording();
+        Endpointer endpointer = microphone.getEndpointer();
+        if (endpointer.getLastReason() == Endpointer.Reason.END_OF_SPEECH) {
+            log.info("StopCapture stopped the recording {} ms after the speech ended, {}",
+                    Math.round(endpointer.getLastStopMillis()), endpointer.getStats());
         }
     }
 
-    private void handleSpeechRecognizerDirective(Directive directive) {
-        if (directive
-                .getName()
-                .equals(AVSAPIConstants.SpeechRecognizer.Directives.ExpectSpeech.NAME)) {
-
-            // If your device cannot handle automatically starting to listen, you must
-            // implement a listen timeout event, as described here:
-            // https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/rest/speechrecognizer-listentimeout-request
-            notifyExpectSpeechDirective();
+    private void notifyExpectSpeechDirective() {
+        for (ExpectSpeechListener listener : expectSpeechListeners) {
+            listener.onExpectSpeechDirective();
         }
     }
 
-    private void handleAlertsDirective(Directive directive) {
-        String directiveName = directive.getName();
-        if (directiveName.equals(AVSAPIConstants.Alerts.Directives.SetAlert.NAME)) {
-            SetAlert payload = (SetAlert) directive.getPayload();
-            String alertToken = payload.getToken();
-            ZonedDateTime scheduledTime = payload.getScheduledTime();
-            AlertType type = payload.getType();
-
-            if (alertManager.hasAlert(alertToken)) {
-                AlertScheduler scheduler = alertManager.getScheduler(alertToken);
-                if (scheduler.getAlert().getScheduledTime().equals(scheduledTime)) {
-                    return;
-                } else {
-                    scheduler.cancel();
-                }
-            }
+    /**
+     * @return the index of the next sample the microphone will capture.
+     */
+    public long getCaptureSampleIndex() {
+        return microphone.getSampleIndex();
+    }
 
-            Alert alert = new Alert(alertToken, type, scheduledTime);
-            alertManager.add(alert);
-        } else if (directiveName.equals(AVSAPIConstants.Alerts.Directives.DeleteAlert.NAME)) {
-            DeleteAlert payload = (DeleteAlert) directive.getPayload();
-            alertManager.delete(payload.getToken());
-        }
+    public void stopRecording() {
+        speechRequestAudioPlayerPauseController.finishedListening();
+        microphone.stopCapture();
     }
 
-    private void handleSpeakerDirective(Directive directive) {
-        String directiveName = directive.getName();
-        if (directiveName.equals(AVSAPIConstants.Speaker.Directives.SetVolume.NAME)) {
-            player.handleSetVolume((VolumePayload) directive.getPayload());
-        } else if (directiveName.equals(AVSAPIConstants.Speaker.Directives.AdjustVolume.NAME)) {
-            player.handleAdjustVolume((VolumePayload) directive.getPayload());
-        } else if (directiveName.equals(AVSAPIConstants.Speaker.Directives.SetMute.NAME)) {
-            player.handleSetMute((SetMute) directive.getPayload());
-        }
+    /**
+     * Stop recording, ending the request audio at the given capture sample if it was already
+     * captured, e.g. where the speech ended.
+     */
+    public void stopRecording(long endSampleIndex) {
+        speechRequestAudioPlayerPauseController.finishedListening();
+        microphone.stopCapture(endSampleIndex);
     }
 
-    private void handleSystemDirective(Directive directive) {
-        if (directive
-                .getName()
-                .equals(AVSAPIConstants.System.Directives.ResetUserInactivity.NAME)) {
-            onUserActivity();
-        }
+    /**
+     * Use the given profile for the next recordings. With a cloud endpointed profile the
+     * recording streams until AVS sends StopCapture, so it shouldn't also be stopped when the
+     * local endpointer hears the end of speech.
+     */
+    public void setSpeechProfile(SpeechProfile speechProfile) {
+        this.speechProfile = speechProfile;
     }
 
-    private void notifyExpectSpeechDirective() {
-        for (ExpectSpeechListener listener : expectSpeechListeners) {
-            listener.onExpectSpeechDirective();
-        }
+    public SpeechProfile getSpeechProfile() {
+        return speechProfile;
     }
 
-    public void stopRecording() {
-        speechRequestAudioPlayerPauseController.finishedListening();
-        microphone.stopCapture();
+    /**
+     * @return the endpointer of the microphone, with its policy and latency stats.
+     */
+    public Endpointer getEndpointer() {
+        return microphone.getEndpointer();
     }
 
     // audio state callback for when recording has started
     @Override
     public void recordingStarted() {
+        player.setListening(true);
         player.playMp3FromResource(START_SOUND);
     }
 
     // audio state callback for when recording has completed
     @Override
     public void recordingCompleted() {
+        player.setListening(false);
         player.playMp3FromResource(END_SOUND);
     }
     
@@ -429,12 +586,12 @@ public class AVSController
 
     public void processingFinished() {
         speechRequestAudioPlayerPauseController
-                .speechRequestProcessingFinished(dependentQueue.size());
+                .speechRequestProcessingFinished(dependentLane.getQueueDepth());
     }
 
     @Override
     public void onAlexaSpeechStarted() {
-        dependentDirectiveThread.block();
+        dependentLane.pause();
 
         if (alertManager.hasActiveAlerts()) {
             for (String alertToken : alertManager.getActiveAlerts()) {
@@ -445,7 +602,7 @@ public class AVSController
 
     @Override
     public void onAlexaSpeechFinished() {
-        dependentDirectiveThread.unblock();
+        dependentLane.resume();
 
         if (alertManager.hasActiveAlerts()) {
             for (String alertToken : alertManager.getActiveAlerts()) {
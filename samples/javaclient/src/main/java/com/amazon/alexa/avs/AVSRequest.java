@@ -14,6 +14,7 @@ import com.amazon.alexa.avs.http.RetryPolicy;
 
 import org.eclipse.jetty.client.api.ContentProvider;
 
+import java.io.Closeable;
 import java.util.Optional;
 
 public class AVSRequest {
@@ -22,6 +23,8 @@ public class AVSRequest {
     private final RetryPolicy retryPolicy;
     private final MultipartParser multipartParser;
     private final RequestListener requestListener;
+    private final long createdTimeMillis;
+    private Closeable source;
 
     public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy, MultipartParser multipartParser, RequestListener requestListener) {
         this.resource = resource;
@@ -29,6 +32,7 @@ public class AVSRequest {
         this.retryPolicy = retryPolicy;
         this.multipartParser = multipartParser;
         this.requestListener = requestListener;
+        this.createdTimeMillis = System.currentTimeMillis();
     }
 
     public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy, MultipartParser multipartParser) {
@@ -54,4 +58,20 @@ public class AVSRequest {
     public Optional<RequestListener> getRequestListener() {
         return Optional.ofNullable(requestListener);
     }
+
+    public long getCreatedTimeMillis() {
+        return createdTimeMillis;
+    }
+
+    /**
+     * @param source
+     *            what the content is read from, closed once the request succeeds or fails.
+     */
+    public void setSource(Closeable source) {
+        this.source = source;
+    }
+
+    public Optional<Closeable> getSource() {
+        return Optional.ofNullable(source);
+    }
 }
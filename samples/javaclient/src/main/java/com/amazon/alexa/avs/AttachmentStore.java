@@ -0,0 +1,151 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds attachments that arrived before any directive asked for them.
+ * <p>
+ * The store is bounded in two ways. An attachment that hasn't been claimed within the time to
+ * live is an orphan, for example from an abandoned dialog, and is dropped. When the buffered size
+ * of the stored attachments goes over the byte budget, the oldest ones are dropped until it fits.
+ * A dropped attachment is closed, which also stops the parser from buffering the rest of it.
+ * <p>
+ * Expiry is checked whenever an attachment is stored or claimed, so no thread is needed. Not
+ * thread safe, the {@link DirectiveEnqueuer} synchronizes all access.
+ */
+class AttachmentStore {
+    private static final Logger log = LoggerFactory.getLogger(AttachmentStore.class);
+
+    private final long byteBudget;
+    private final long timeToLiveMs;
+    // In the order they arrived, so the oldest comes first
+    private final Map<String, StoredAttachment> attachments = new LinkedHashMap<>();
+    private long orphanedCount;
+    private long droppedCount;
+    private long droppedBytes;
+
+    AttachmentStore(long byteBudget, long timeToLiveMs) {
+        this.byteBudget = byteBudget;
+        this.timeToLiveMs = timeToLiveMs;
+    }
+
+    void put(String contentId, InputStream content) {
+        StoredAttachment previous =
+                attachments.put(contentId, new StoredAttachment(content, System.currentTimeMillis()));
+        if (previous != null) {
+            log.warn("Replacing unclaimed attachment {}", contentId);
+            drop(contentId, previous);
+        }
+        evict();
+    }
+
+    /**
+     * @return the attachment with the given contentId, or null if there is none.
+     */
+    InputStream remove(String contentId) {
+        evict();
+        StoredAttachment attachment = attachments.remove(contentId);
+        return (attachment == null) ? null : attachment.content;
+    }
+
+    int size() {
+        return attachments.size();
+    }
+
+    long getBufferedBytes() {
+        long bytes = 0;
+        for (StoredAttachment attachment : attachments.values()) {
+            bytes += attachment.getBufferedBytes();
+        }
+        return bytes;
+    }
+
+    long getOrphanedCount() {
+        return orphanedCount;
+    }
+
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        long bytes = 0;
+        Iterator<Map.Entry<String, StoredAttachment>> iterator = attachments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, StoredAttachment> entry = iterator.next();
+            StoredAttachment attachment = entry.getValue();
+            if ((now - attachment.storedAtMs) >= timeToLiveMs) {
+                orphanedCount++;
+                log.warn("Dropping attachment {}, no directive claimed it in {} ms",
+                        entry.getKey(), timeToLiveMs);
+                iterator.remove();
+                drop(entry.getKey(), attachment);
+            } else {
+                bytes += attachment.getBufferedBytes();
+            }
+        }
+
+        iterator = attachments.entrySet().iterator();
+        while ((bytes > byteBudget) && iterator.hasNext()) {
+            Map.Entry<String, StoredAttachment> entry = iterator.next();
+            StoredAttachment attachment = entry.getValue();
+            log.warn("Dropping attachment {}, unclaimed attachments are over the budget of {} bytes",
+                    entry.getKey(), byteBudget);
+            bytes -= attachment.getBufferedBytes();
+            iterator.remove();
+            drop(entry.getKey(), attachment);
+        }
+    }
+
+    private void drop(String contentId, StoredAttachment attachment) {
+        long bytes = attachment.getBufferedBytes();
+        droppedCount++;
+        droppedBytes += bytes;
+        IOUtils.closeQuietly(attachment.content);
+        log.info("Dropped attachment {} of {} bytes: {} dropped, {} orphaned, {} bytes dropped so far",
+                contentId, bytes, droppedCount, orphanedCount, droppedBytes);
+    }
+
+    private static class StoredAttachment {
+        private final InputStream content;
+        private final long storedAtMs;
+
+        StoredAttachment(InputStream content, long storedAtMs) {
+            this.content = content;
+            this.storedAtMs = storedAtMs;
+        }
+
+        /**
+         * Streamed attachments keep growing until their part has been read, so this is measured
+         * each time.
+         */
+        long getBufferedBytes() {
+            try {
+                return content.available();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -13,19 +13,38 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.TargetDataLine;
 
+/**
+ * Captures an {@link AudioSource}, normally the microphone, into an {@link AudioRing}. Every
+ * stream handed out is a cursor on the same ring, so any number of consumers can read the capture,
+ * and the capture thread reads straight into the ring without allocating. A source that isn't
+ * live, like {@link FileAudioSource}, makes the ring lossless.
+ * <p>
+ * By default the microphone is opened for each recording and closed when it stops. In continuous
+ * mode it stays open, the ring keeps the last few seconds as history, and a recording can start
+ * at any sample still in that history, e.g. just before a wake word was detected.
+ */
 public class AudioCapture {
     private static AudioCapture sAudioCapture;
-    private final TargetDataLine microphoneLine;
+    private final AudioSource source;
     private AudioFormat audioFormat;
     private AudioBufferThread thread;
+    private final AudioRing ring;
+    private volatile boolean continuous;
+    private volatile RecordingStateListener recordingStateListener;
+    private volatile RecordingRMSListener recordingRmsListener;
+    private AudioRing.Cursor recordingCursor;
+    // Only touched by the capture thread, which resets it when a recording starts
+    private final VoiceActivityDetector voiceActivityDetector;
+    private final Endpointer endpointer;
+    private volatile boolean recording;
+    private volatile boolean resetVoiceActivityDetector;
 
     private static final int BUFFER_SIZE_IN_SECONDS = 6;
+    private static final int VAD_FRAME_MS = 10;
 
     private final int BUFFER_SIZE_IN_BYTES;
 
@@ -34,87 +53,287 @@ public class AudioCapture {
     public static AudioCapture getAudioHardware(final AudioFormat audioFormat,
             MicrophoneLineFactory microphoneLineFactory) {
         if (sAudioCapture == null) {
-            sAudioCapture = new AudioCapture(audioFormat, microphoneLineFactory);
+            sAudioCapture = new AudioCapture(audioFormat,
+                    new MicrophoneAudioSource(microphoneLineFactory.getMicrophone()));
         }
         return sAudioCapture;
     }
 
-    private AudioCapture(final AudioFormat audioFormat,
-            MicrophoneLineFactory microphoneLineFactory) {
+    /**
+     * Use the given source for the shared capture, e.g. to run the app from recorded audio. Only
+     * the first source asked for is used.
+     */
+    public static AudioCapture getAudioHardware(final AudioFormat audioFormat,
+            AudioSource source) {
+        if (sAudioCapture == null) {
+            sAudioCapture = new AudioCapture(audioFormat, source);
+        }
+        return sAudioCapture;
+    }
+
+    /**
+     * A capture of its own, apart from the shared one, e.g. to run a pipeline over recorded audio.
+     */
+    public AudioCapture(final AudioFormat audioFormat, AudioSource source) {
         super();
         this.audioFormat = audioFormat;
-        microphoneLine = microphoneLineFactory.getMicrophone();
+        this.source = source;
 
         BUFFER_SIZE_IN_BYTES =
                 (int) ((audioFormat.getSampleSizeInBits() * audioFormat.getSampleRate()) / 8
                         * BUFFER_SIZE_IN_SECONDS);
+        ring = new AudioRing(BUFFER_SIZE_IN_BYTES, audioFormat.getFrameSize());
+        ring.setLossless(!source.isLive());
+        voiceActivityDetector = new VoiceActivityDetector(
+                (int) ((audioFormat.getFrameRate() * VAD_FRAME_MS) / 1000),
+                EndpointPolicy.HANGOVER_ONLY.getTrailingSilenceMs() / VAD_FRAME_MS);
+        endpointer = new Endpointer(EndpointPolicy.HANGOVER_ONLY, audioFormat.getFrameRate());
+        voiceActivityDetector.addListener(endpointer);
+    }
+
+    /**
+     * Keep the microphone open and capturing until {@link #stopContinuousCapture()}, so recordings
+     * can start without reopening the line and from audio captured before they were asked for.
+     */
+    public synchronized void startContinuousCapture() throws LineUnavailableException {
+        if (continuous) {
+            return;
+        }
+        if (!source.isOpen()) {
+            startCapture();
+            startCaptureThread();
+        }
+        continuous = true;
+    }
+
+    public synchronized void stopContinuousCapture() {
+        continuous = false;
+        finishRecording();
+        closeLine();
+    }
+
+    public boolean isCapturingContinuously() {
+        return continuous;
+    }
+
+    /**
+     * @return whether a recording is being streamed.
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * @return the index of the next sample to be captured.
+     */
+    public long getSampleIndex() {
+        return ring.getWritePosition() / ring.getFrameSize();
+    }
+
+    /**
+     * @return the index of the oldest sample still in the capture history.
+     */
+    public long getOldestSampleIndex() {
+        return ring.getOldestPosition() / ring.getFrameSize();
+    }
+
+    public long millisToSamples(long millis) {
+        return (long) ((millis * audioFormat.getFrameRate()) / 1000);
     }
 
     public InputStream getAudioInputStream(final RecordingStateListener stateListener,
             final RecordingRMSListener rmsListener) throws LineUnavailableException, IOException {
+        return getAudioInputStream(stateListener, rmsListener, getSampleIndex());
+    }
+
+    /**
+     * Start a recording. In continuous mode it starts at the given sample, or the oldest one still
+     * in the history, without reopening the microphone. Otherwise the microphone is opened and
+     * the recording starts now.
+     */
+    public synchronized InputStream getAudioInputStream(
+            final RecordingStateListener stateListener, final RecordingRMSListener rmsListener,
+            long startSampleIndex) throws LineUnavailableException, IOException {
         try {
-            startCapture();
-            PipedInputStream inputStream = new PipedInputStream(BUFFER_SIZE_IN_BYTES);
-            thread = new AudioBufferThread(inputStream, stateListener, rmsListener);
-            thread.start();
-            return inputStream;
-        } catch (LineUnavailableException | IOException e) {
+            finishRecording();
+            long startPosition;
+            if (continuous) {
+                startPosition = startSampleIndex * ring.getFrameSize();
+            } else {
+                startCapture();
+                startPosition = ring.getWritePosition();
+            }
+
+            recordingCursor = ring.openCursor(startPosition);
+            recordingStateListener = stateListener;
+            recordingRmsListener = rmsListener;
+            resetVoiceActivityDetector = true;
+            recording = true;
+            if (stateListener != null) {
+                stateListener.recordingStarted();
+            }
+            if (!continuous) {
+                startCaptureThread();
+            }
+            log.debug("Recording from sample {}, {} samples before capture",
+                    recordingCursor.getPosition() / ring.getFrameSize(),
+                    getSampleIndex() - (recordingCursor.getPosition() / ring.getFrameSize()));
+            return recordingCursor;
+        } catch (LineUnavailableException e) {
             stopCapture();
             throw e;
         }
     }
 
-    public void stopCapture() {
-        microphoneLine.stop();
-        microphoneLine.read(new byte[microphoneLine.available()], 0, microphoneLine.available());
-        microphoneLine.close();
+    /**
+     * @return a cursor on the capture starting at the oldest audio still in the ring, for an
+     *         extra consumer such as a recorder. It ends when capture stops.
+     */
+    public AudioRing.Cursor openCursor() {
+        return ring.openCursor(ring.getOldestPosition());
+    }
 
+    /**
+     * @return a cursor on the capture starting at the given sample, or the oldest one still in the
+     *         ring. Close it when done with it.
+     */
+    public AudioRing.Cursor openCursor(long sampleIndex) {
+        return ring.openCursor(sampleIndex * ring.getFrameSize());
     }
 
-    private void startCapture() throws LineUnavailableException {
-        microphoneLine.open(audioFormat);
-        microphoneLine.start();
+    public AudioRing getRing() {
+        return ring;
     }
 
-    public int getAudioBufferSizeInBytes() {
-        return BUFFER_SIZE_IN_BYTES;
+    /**
+     * @return the detector run on the capture while recording. Its listeners are called on the
+     *         capture thread.
+     */
+    public VoiceActivityDetector getVoiceActivityDetector() {
+        return voiceActivityDetector;
+    }
+
+    /**
+     * @return the endpointer that decides from the detector when each recording should end.
+     */
+    public Endpointer getEndpointer() {
+        return endpointer;
+    }
+
+    /**
+     * Endpoint recordings with the given policy, from the next one.
+     */
+    public void setEndpointPolicy(EndpointPolicy policy) {
+        endpointer.setPolicy(policy);
+    }
+
+    /**
+     * Stop the current recording with its stream ending at the given sample if that was already
+     * captured, e.g. at the end of speech so the trailing silence isn't sent.
+     */
+    public synchronized void stopCapture(long endSampleIndex) {
+        if (recordingCursor != null) {
+            recordingCursor.endAt(Math.min(endSampleIndex * ring.getFrameSize(),
+                    ring.getWritePosition()));
+        }
+        stopCapture();
+    }
+
+    /**
+     * Stop the current recording. In continuous mode the microphone stays open.
+     */
+    public synchronized void stopCapture() {
+        if (continuous) {
+            finishRecording();
+        } else {
+            closeLine();
+        }
+    }
+
+    private void closeLine() {
+        source.stop();
+        source.read(new byte[source.available()], 0, source.available());
+        source.close();
+    }
+
+    private void startCapture() throws LineUnavailableException {
+        source.open(audioFormat);
+        source.start();
     }
 
-    private class AudioBufferThread extends Thread {
+    private void startCaptureThread() {
+        thread = new AudioBufferThread();
+        thread.start();
+    }
 
-        private final AudioStateOutputStream audioStateOutputStream;
+    /**
+     * End the stream of the current recording, if any, at what has been captured so far.
+     */
+    private synchronized void finishRecording() {
+        if (recordingCursor == null) {
+            return;
+        }
+        recordingCursor.endAt(ring.getWritePosition());
+        recordingCursor = null;
+        recording = false;
+        endpointer.stopped(getSampleIndex());
 
-        public AudioBufferThread(PipedInputStream inputStream,
-                RecordingStateListener recordingStateListener, RecordingRMSListener rmsListener)
-                        throws IOException {
-            audioStateOutputStream =
-                    new AudioStateOutputStream(inputStream, recordingStateListener, rmsListener);
+        RecordingStateListener stateListener = recordingStateListener;
+        RecordingRMSListener rmsListener = recordingRmsListener;
+        recordingStateListener = null;
+        recordingRmsListener = null;
+        if (stateListener != null) {
+            stateListener.recordingCompleted();
         }
+        if (rmsListener != null) {
+            rmsListener.rmsChanged(0);
+        }
+    }
+
+    public int getAudioBufferSizeInBytes() {
+        return BUFFER_SIZE_IN_BYTES;
+    }
+
+    private class AudioBufferThread extends Thread implements AudioRing.Source {
 
         @Override
         public void run() {
-            while (microphoneLine.isOpen()) {
-                copyAudioBytesFromInputToOutput();
+            int chunkSize = source.getBufferSize() / 5;
+            while (source.isOpen()) {
+                ring.write(this, chunkSize);
             }
-            closePipedOutputStream();
+            finishRecording();
+            ring.endCursors();
         }
 
-        private void copyAudioBytesFromInputToOutput() {
-            byte[] data = new byte[microphoneLine.getBufferSize() / 5];
-            int numBytesRead = microphoneLine.read(data, 0, data.length);
-            try {
-                audioStateOutputStream.write(data, 0, numBytesRead);
-            } catch (IOException e) {
-                stopCapture();
-            }
-        }
+        /**
+         * Reads the source into the ring, and while recording runs voice activity detection
+         * on what was read in place.
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            int numBytesRead = source.read(buffer, offset, length);
+            if (recording && (numBytesRead > 0)) {
+                if (resetVoiceActivityDetector) {
+                    resetVoiceActivityDetector = false;
+                    voiceActivityDetector.setHangoverFrames(Math.max(1,
+                            endpointer.getPolicy().getTrailingSilenceMs() / VAD_FRAME_MS));
+                    voiceActivityDetector.reset(false);
+                    // what was just read starts at the write position
+                    endpointer.start(getSampleIndex());
+                }
+                voiceActivityDetector.process(buffer, offset, numBytesRead);
+                endpointer.update(
+                        voiceActivityDetector.getFrameIndex() * voiceActivityDetector.getFrameSamples());
 
-        private void closePipedOutputStream() {
-            try {
-                audioStateOutputStream.close();
-            } catch (IOException e) {
-                log.error("Failed to close audio stream ", e);
+                // update the AudioRMSListener callback for the audio visualizer (optional)
+                RecordingRMSListener rmsListener = recordingRmsListener;
+                int level = voiceActivityDetector.takeLevel();
+                if ((rmsListener != null) && (level > 0)) {
+                    rmsListener.rmsChanged(level);
+                }
             }
+            return numBytesRead;
         }
     }
 
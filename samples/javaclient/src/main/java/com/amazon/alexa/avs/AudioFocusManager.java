@@ -0,0 +1,271 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Arbitrates the audio focus between the {@link Channel}s that have something to play. The focus
+ * is the highest priority active channel. Each other active channel is given the
+ * {@link Policy} it has for the channel with the focus: paused, ducked to a lower gain while it
+ * keeps playing, or muted while it keeps playing.
+ * <p>
+ * Gain changes are ramped rather than stepped, so nothing clicks when it is ducked or comes back,
+ * and a channel that is paused is ramped down before it is paused. Everything runs on the
+ * {@link AudioScheduler}'s loop, including the ramps.
+ */
+public class AudioFocusManager {
+
+    // How long a gain ramp takes from silence to full gain, and how often it steps
+    private static final int RAMP_MS = 250;
+    private static final int RAMP_STEP_MS = 10;
+
+    /**
+     * Who wants to be heard, highest priority first.
+     */
+    public enum Channel {
+        // The user talking to Alexa, while the microphone is open
+        LISTENING,
+        // Alexa's speech
+        DIALOG,
+        // Alarms and timers
+        ALERTS,
+        // Music and other media
+        CONTENT
+    }
+
+    public enum FocusState {
+        // The channel has the focus and plays at full gain
+        FOREGROUND,
+        // Another channel has the focus, and this one keeps playing at the gain of its policy
+        BACKGROUND,
+        // Another channel has the focus, and this one must not play
+        PAUSED,
+        // The channel has nothing to play
+        NONE
+    }
+
+    /**
+     * What a channel does while another one has the focus.
+     */
+    public static final class Policy {
+        private final boolean pause;
+        private final float gain;
+
+        private Policy(boolean pause, float gain) {
+            this.pause = pause;
+            this.gain = gain;
+        }
+
+        public static Policy pause() {
+            return new Policy(true, 0);
+        }
+
+        /**
+         * @param percent
+         *            the gain to keep playing at, from 0 to 100.
+         */
+        public static Policy duck(int percent) {
+            return new Policy(false, Math.max(0, Math.min(100, percent)) / 100f);
+        }
+
+        public static Policy mute() {
+            return new Policy(false, 0);
+        }
+
+        @Override
+        public String toString() {
+            if (pause) {
+                return "pause";
+            }
+            return (gain == 0) ? "mute" : String.format("duck to %.0f%%", gain * 100);
+        }
+    }
+
+    /**
+     * Where a channel's audio goes. Both methods are called on the loop.
+     */
+    public interface ChannelOutput {
+        /**
+         * Start, keep playing or pause the channel. Called on every focus update for an active
+         * channel, so this must do nothing when the channel is already in the state.
+         */
+        void onFocusChanged(FocusState state);
+
+        /**
+         * @param gain
+         *            from 0 to 1, applied on top of the user's volume.
+         */
+        void setGain(float gain);
+    }
+
+    private final AudioScheduler scheduler;
+    private final Map<Channel, ManagedChannel> channels = new EnumMap<>(Channel.class);
+    // Only used on the loop
+    private final EnumSet<Channel> active = EnumSet.noneOf(Channel.class);
+
+    public AudioFocusManager(AudioScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Manage a channel's output. Channels that aren't registered only take part in deciding the
+     * focus.
+     *
+     * @param policy
+     *            what the channel does while any other channel has the focus, unless
+     *            {@link #setPolicy(Channel, Channel, Policy)} says otherwise for that channel.
+     */
+    public void register(Channel channel, Policy policy, ChannelOutput output) {
+        channels.put(channel, new ManagedChannel(policy, output));
+    }
+
+    /**
+     * Give a registered channel a policy of its own for while the given channel has the focus,
+     * e.g. to be silent rather than ducked while the microphone is open.
+     */
+    public void setPolicy(Channel channel, Channel focus, Policy policy) {
+        channels.get(channel).policies.put(focus, policy);
+    }
+
+    /**
+     * Mark whether the channel has something to play. Nothing changes until {@link #update()},
+     * so several channels can change at once without the others reacting to each step. Only
+     * call this on the loop.
+     */
+    public void setActive(Channel channel, boolean isActive) {
+        if (isActive) {
+            active.add(channel);
+        } else {
+            active.remove(channel);
+        }
+    }
+
+    /**
+     * Give each registered channel the state for the current focus. Only call this on the loop.
+     */
+    public void update() {
+        Channel focus = getFocus();
+        for (Map.Entry<Channel, ManagedChannel> entry : channels.entrySet()) {
+            Channel channel = entry.getKey();
+            ManagedChannel managed = entry.getValue();
+            Policy policy = managed.getPolicy(focus);
+            FocusState state;
+            if (!active.contains(channel)) {
+                state = FocusState.NONE;
+            } else if (channel == focus) {
+                state = FocusState.FOREGROUND;
+            } else {
+                state = policy.pause ? FocusState.PAUSED : FocusState.BACKGROUND;
+            }
+            managed.update(state, policy);
+        }
+    }
+
+    /**
+     * @return the highest priority active channel, or null if none is. Only call this on the
+     *         loop.
+     */
+    public Channel getFocus() {
+        return active.isEmpty() ? null : active.iterator().next();
+    }
+
+    public FocusState getState(Channel channel) {
+        ManagedChannel managed = channels.get(channel);
+        return (managed != null) ? managed.state : FocusState.NONE;
+    }
+
+    private class ManagedChannel {
+        private final Policy policy;
+        private final Map<Channel, Policy> policies = new EnumMap<>(Channel.class);
+        private final ChannelOutput output;
+        private FocusState state = FocusState.NONE;
+        private float gain = 1;
+        private float targetGain = 1;
+        private boolean ramping;
+
+        ManagedChannel(Policy policy, ChannelOutput output) {
+            this.policy = policy;
+            this.output = output;
+        }
+
+        Policy getPolicy(Channel focus) {
+            Policy forFocus = (focus != null) ? policies.get(focus) : null;
+            return (forFocus != null) ? forFocus : policy;
+        }
+
+        void update(FocusState newState, Policy policy) {
+            FocusState oldState = state;
+            state = newState;
+            switch (newState) {
+                case NONE:
+                    // Start at full gain next time
+                    targetGain = 1;
+                    if (gain != 1) {
+                        gain = 1;
+                        output.setGain(gain);
+                    }
+                    break;
+                case PAUSED:
+                    if (oldState == FocusState.NONE) {
+                        gain = 0;
+                        targetGain = 0;
+                        output.setGain(gain);
+                        output.onFocusChanged(newState);
+                    } else if (gain == 0) {
+                        output.onFocusChanged(newState);
+                    } else {
+                        // Paused once the ramp reaches silence
+                        rampTo(0);
+                    }
+                    break;
+                default:
+                    float gainForState = (newState == FocusState.FOREGROUND) ? 1 : policy.gain;
+                    if (oldState == FocusState.NONE) {
+                        gain = gainForState;
+                        targetGain = gainForState;
+                        output.setGain(gain);
+                    } else {
+                        rampTo(gainForState);
+                    }
+                    output.onFocusChanged(newState);
+                    break;
+            }
+        }
+
+        private void rampTo(float target) {
+            targetGain = target;
+            if (!ramping && (gain != targetGain)) {
+                ramping = true;
+                scheduler.schedule(this::step, RAMP_STEP_MS);
+            }
+        }
+
+        private void step() {
+            float step = (float) RAMP_STEP_MS / RAMP_MS;
+            if (Math.abs(targetGain - gain) <= step) {
+                gain = targetGain;
+            } else {
+                gain += (targetGain > gain) ? step : -step;
+            }
+            output.setGain(gain);
+
+            if (gain != targetGain) {
+                scheduler.schedule(this::step, RAMP_STEP_MS);
+                return;
+            }
+            ramping = false;
+            if (state == FocusState.PAUSED) {
+                output.onFocusChanged(state);
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Mixes every sound the client plays itself, Alexa's speech, earcons and the alarm, onto one
+ * output line that is opened once and kept open, so nothing opens an audio device to start
+ * playing and sounds can overlap, e.g. an alarm ducked under speech.
+ * <p>
+ * One thread mixes a period of a few ms at a time from every {@link Input}, each scaled by its own
+ * gain, and writes it to the line. Mixing is in fixed point and allocates nothing, and an input
+ * whose source has nothing ready is skipped for the period rather than holding up the others.
+ * Inputs in another format are resampled linearly and mapped to the mixer's channels as they are
+ * mixed.
+ * <p>
+ * The line is stopped while there is nothing to mix.
+ */
+public class AudioMixer {
+    private static final Logger log = LoggerFactory.getLogger(AudioMixer.class);
+
+    public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+    private static final int PERIOD_MS = 10;
+    // A few periods, so a new sound isn't queued behind much of what was mixed before it
+    private static final int LINE_BUFFER_MS = 40;
+    private static final int CHANNELS = FORMAT.getChannels();
+    private static final int FRAMES_PER_MS = (int) (FORMAT.getFrameRate() / 1000);
+    private static final int PERIOD_FRAMES = PERIOD_MS * FRAMES_PER_MS;
+    // Gains are fixed point, with this as full gain
+    private static final int UNITY_GAIN = 1 << 15;
+    // Resampling positions are fixed point, with this as one frame
+    private static final int FRAME_ONE = 1 << 16;
+
+    /**
+     * 16 bit little endian PCM to mix.
+     */
+    public interface Source {
+        /**
+         * Copy up to the given length of audio, in whole frames, without waiting for it.
+         *
+         * @return the number of bytes copied, 0 if none are ready yet, or -1 at the end.
+         */
+        int read(byte[] buffer, int offset, int length);
+    }
+
+    private final CopyOnWriteArrayList<Input> inputs = new CopyOnWriteArrayList<>();
+    private final int[] mix = new int[PERIOD_FRAMES * CHANNELS];
+    private final byte[] period = new byte[PERIOD_FRAMES * FORMAT.getFrameSize()];
+
+    private volatile SourceDataLine line;
+    private Thread mixer;
+    // Only changed by the mixer thread
+    private volatile long framesWritten;
+    private long periodCount;
+    private long maxMixNanos;
+
+    /**
+     * Open the output line, if it isn't already, and start mixing.
+     *
+     * @throws LineUnavailableException
+     *             if there is no output line for the mixer's format.
+     */
+    public synchronized void open() throws LineUnavailableException {
+        if (line != null) {
+            return;
+        }
+        SourceDataLine opened = getLine();
+        opened.open(FORMAT, LINE_BUFFER_MS * FRAMES_PER_MS * FORMAT.getFrameSize());
+        line = opened;
+        framesWritten = 0;
+        mixer = new Thread(this::run, "mixer");
+        mixer.setDaemon(true);
+        mixer.start();
+    }
+
+    /**
+     * @return the line to mix to, which is opened by the mixer.
+     */
+    protected SourceDataLine getLine() throws LineUnavailableException {
+        try {
+            return AudioSystem.getSourceDataLine(FORMAT);
+        } catch (IllegalArgumentException e) {
+            throw new LineUnavailableException("No output line for " + FORMAT);
+        }
+    }
+
+    public boolean isOpen() {
+        return line != null;
+    }
+
+    /**
+     * Start mixing the source, opening the line if it isn't open.
+     *
+     * @param format
+     *            the format of the source, which must be 16 bit little endian PCM.
+     */
+    public synchronized Input add(Source source, AudioFormat format)
+            throws LineUnavailableException {
+        // Under the lock, so a mixer that fails now either finishes the input or is reopened
+        open();
+        Input input = new Input(source, format);
+        inputs.add(input);
+        notifyAll();
+        return input;
+    }
+
+    public synchronized String getStats() {
+        return String.format("%d periods mixed, %.2f ms max to mix a period", periodCount,
+                maxMixNanos / 1e6);
+    }
+
+    public void close() {
+        Thread running;
+        SourceDataLine closing;
+        synchronized (this) {
+            running = mixer;
+            closing = line;
+            mixer = null;
+            line = null;
+        }
+        if (running != null) {
+            running.interrupt();
+        }
+        if (closing != null) {
+            closing.stop();
+            closing.flush();
+            closing.close();
+        }
+        for (Input input : inputs) {
+            input.finish();
+        }
+        inputs.clear();
+    }
+
+    private void run() {
+        SourceDataLine output = line;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (inputs.isEmpty()) {
+                    // Nothing left to mix, so stop once what was mixed has been played
+                    output.drain();
+                    output.stop();
+                    synchronized (this) {
+                        while (inputs.isEmpty()) {
+                            wait();
+                        }
+                    }
+                    output.start();
+                }
+                long start = System.nanoTime();
+                mixPeriod();
+                synchronized (this) {
+                    periodCount++;
+                    maxMixNanos = Math.max(maxMixNanos, System.nanoTime() - start);
+                }
+                output.write(period, 0, period.length);
+                framesWritten += PERIOD_FRAMES;
+                finishPlayedInputs(output.getLongFramePosition());
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (RuntimeException e) {
+            log.error("Mixer failed, it will be reopened for the next sound", e);
+        } finally {
+            reset(output);
+        }
+    }
+
+    /**
+     * Let the next sound reopen the line if the mixer stopped without being closed, and finish the
+     * inputs it was mixing so nothing waits for them forever.
+     */
+    private void reset(SourceDataLine output) {
+        synchronized (this) {
+            if (mixer != Thread.currentThread()) {
+                // closed
+                return;
+            }
+            mixer = null;
+            line = null;
+            for (Input input : inputs) {
+                input.finish();
+            }
+            inputs.clear();
+        }
+        output.close();
+    }
+
+    /**
+     * Mix a period from every input into the period buffer, clipping the sum.
+     */
+    private void mixPeriod() {
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = 0;
+        }
+        for (Input input : inputs) {
+            try {
+                input.mixInto(mix);
+            } catch (RuntimeException e) {
+                // Don't let one bad source silence the others
+                log.error("Dropping a mixer input that failed", e);
+                inputs.remove(input);
+                input.finish();
+            }
+        }
+        int out = 0;
+        for (int i = 0; i < mix.length; i++) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            period[out++] = (byte) sample;
+            period[out++] = (byte) (sample >> 8);
+        }
+    }
+
+    private void finishPlayedInputs(long playedFrames) {
+        for (Input input : inputs) {
+            if ((input.endFrame >= 0) && (playedFrames >= input.endFrame)) {
+                inputs.remove(input);
+                input.finish();
+            }
+        }
+    }
+
+    /**
+     * A source being mixed.
+     */
+    public class Input {
+        private final Source source;
+        private final int sourceChannels;
+        private final int frameSize;
+        // How far the source moves for each frame mixed, fixed point
+        private final int step;
+        private final byte[] buffer;
+        private int bufferLength;
+        private int bufferOffset;
+
+        // The frames being interpolated between, and how far past the first we are, fixed point
+        private final int[] previous;
+        private final int[] next;
+        private int phase = FRAME_ONE;
+        private boolean primed;
+
+        private volatile int gain = UNITY_GAIN;
+        private volatile long startFrame = -1;
+        private volatile long endFrame = -1;
+        private volatile boolean removed;
+        private volatile boolean finished;
+        private long underruns;
+
+        private Input(Source source, AudioFormat format) {
+            this.source = source;
+            sourceChannels = format.getChannels();
+            frameSize = format.getFrameSize();
+            step = Math.round((format.getSampleRate() * FRAME_ONE) / FORMAT.getSampleRate());
+            // Enough of the source for a period, plus a frame to interpolate to
+            int sourceFrames = (int) (((long) PERIOD_FRAMES * step) / FRAME_ONE) + 2;
+            buffer = new byte[sourceFrames * frameSize];
+            previous = new int[sourceChannels];
+            next = new int[sourceChannels];
+        }
+
+        /**
+         * @param gain
+         *            from 0 to 1.
+         */
+        public void setGain(float gain) {
+            this.gain = Math.round(Math.max(0, Math.min(1, gain)) * UNITY_GAIN);
+        }
+
+        /**
+         * Stop mixing the source right away. What was already mixed is still played.
+         */
+        public void remove() {
+            removed = true;
+            if (inputs.remove(this)) {
+                finish();
+            }
+        }
+
+        /**
+         * @return whether all of the source has been played, or it was removed.
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Wait until all of the source has been played, or it was removed.
+         */
+        public synchronized void awaitFinished() throws InterruptedException {
+            while (!finished) {
+                wait();
+            }
+        }
+
+        /**
+         * @return how much of the source has been played out of the line, in ms.
+         */
+        public long getPlayedMillis() {
+            SourceDataLine output = line;
+            if ((startFrame < 0) || (output == null)) {
+                return 0;
+            }
+            long played = output.getLongFramePosition();
+            if (endFrame >= 0) {
+                played = Math.min(played, endFrame);
+            }
+            return (Math.max(0, played - startFrame)) / FRAMES_PER_MS;
+        }
+
+        /**
+         * @return how many periods the source had nothing ready for.
+         */
+        public long getUnderrunCount() {
+            return underruns;
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Add a period of the source, scaled by its gain, to the mix.
+         */
+        private void mixInto(int[] mix) {
+            if (removed || (endFrame >= 0)) {
+                return;
+            }
+            int scale = gain;
+            int out = 0;
+            for (int frame = 0; frame < PERIOD_FRAMES; frame++) {
+                // Move to the pair of source frames this output frame falls between
+                while (phase >= FRAME_ONE) {
+                    int read = nextSourceFrame();
+                    if (read < 0) {
+                        endFrame = framesWritten + frame;
+                        return;
+                    }
+                    if (read == 0) {
+                        underruns++;
+                        return;
+                    }
+                    phase -= FRAME_ONE;
+                }
+                if (startFrame < 0) {
+                    startFrame = framesWritten + frame;
+                }
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    int in = Math.min(channel, sourceChannels - 1);
+                    int a = previous[in];
+                    int sample = a + (int) (((long) (next[in] - a) * phase) >> 16);
+                    mix[out++] += (sample * scale) >> 15;
+                }
+                phase += step;
+            }
+        }
+
+        /**
+         * Shift the next source frame in to interpolate towards.
+         *
+         * @return 1, 0 if the source has nothing ready, or -1 at its end.
+         */
+        private int nextSourceFrame() {
+            if (bufferOffset >= bufferLength) {
+                int read = source.read(buffer, 0, buffer.length);
+                if (read <= 0) {
+                    return read;
+                }
+                bufferLength = read - (read % frameSize);
+                bufferOffset = 0;
+            }
+            for (int channel = 0; channel < sourceChannels; channel++) {
+                previous[channel] = next[channel];
+                int index = bufferOffset + (channel * 2);
+                next[channel] = (short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8));
+            }
+            bufferOffset += frameSize;
+            if (!primed) {
+                // The first frame has nothing before it, so start exactly on it
+                primed = true;
+                System.arraycopy(next, 0, previous, 0, sourceChannels);
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preallocated ring of captured PCM bytes with one producer and any number of consumers.
+ * <p>
+ * The producer reads audio straight into the ring and doesn't wait for consumers, since live
+ * capture can't be held back. Each consumer reads through its own {@link Cursor}, so the wake word
+ * decoder, the Recognize upload and a recorder can all read the same capture without it being
+ * copied for each of them. Positions are byte offsets since the ring was created and only grow.
+ * A cursor that falls more than the capacity behind has been overrun; it skips ahead and the
+ * overrun is counted.
+ * <p>
+ * Writing doesn't lock or allocate. Readers only synchronize when they have to wait for data.
+ * <p>
+ * A ring fed from a source that isn't live, like a file, can be made lossless. The producer then
+ * waits for the slowest open cursor instead of overrunning it, so every cursor must be read or
+ * closed. A cursor that has been ended, e.g. a recording whose upload failed, is closed if its
+ * reader makes no progress for a while, so it can't hold the producer back forever.
+ */
+public class AudioRing {
+    private static final Logger log = LoggerFactory.getLogger(AudioRing.class);
+
+    // A lossless producer rechecks the cursors this often in case a wakeup was missed
+    private static final long PRODUCER_WAIT_MS = 10;
+    // A lossless producer gives up on an ended cursor whose reader is stuck for this long
+    private static final long ABANDONED_CURSOR_MS = 2000;
+
+    /**
+     * Where the producer reads audio from, e.g. {@link javax.sound.sampled.TargetDataLine#read}.
+     */
+    public interface Source {
+        int read(byte[] buffer, int offset, int length);
+    }
+
+    private final byte[] buffer;
+    private final int capacity;
+    private final int frameSize;
+    private final Object waitLock = new Object();
+    private final AtomicInteger waitingReaders = new AtomicInteger();
+    private final CopyOnWriteArrayList<Cursor> cursors = new CopyOnWriteArrayList<>();
+    // Everything before this has been written
+    private volatile long writePosition;
+    // Everything before this, less the capacity, may be overwritten by the write in progress
+    private volatile long writeLimit;
+    private volatile boolean lossless;
+    private volatile boolean producerWaiting;
+
+    /**
+     * @param capacity
+     *            the size of the ring in bytes, a multiple of the frame size.
+     * @param frameSize
+     *            the size of one sample frame in bytes. Cursors never split a frame.
+     */
+    public AudioRing(int capacity, int frameSize) {
+        if ((capacity <= 0) || ((capacity % frameSize) != 0)) {
+            throw new IllegalArgumentException(
+                    "Capacity must be a positive multiple of the frame size " + frameSize);
+        }
+        this.capacity = capacity;
+        this.frameSize = frameSize;
+        buffer = new byte[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public void setLossless(boolean lossless) {
+        this.lossless = lossless;
+        wakeReaders();
+    }
+
+    public boolean isLossless() {
+        return lossless;
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * @return the oldest position that can still be read.
+     */
+    public long getOldestPosition() {
+        return Math.max(0, writeLimit - capacity);
+    }
+
+    /**
+     * Read up to maxBytes from the source into the ring. Only the producer thread may call this.
+     *
+     * @return the number of bytes the source read, or its result if it read nothing.
+     */
+    public int write(Source source, int maxBytes) {
+        long position = writePosition;
+        int offset = (int) (position % capacity);
+        int length = Math.min(maxBytes, capacity - offset);
+        length -= length % frameSize;
+        if (lossless) {
+            awaitSpace(position + length);
+        }
+
+        writeLimit = position + length;
+        int read = source.read(buffer, offset, length);
+        if (read <= 0) {
+            writeLimit = position;
+            return read;
+        }
+        read -= read % frameSize;
+        writeLimit = position + read;
+        writePosition = position + read;
+
+        if (waitingReaders.get() > 0) {
+            synchronized (waitLock) {
+                waitLock.notifyAll();
+            }
+        }
+        return read;
+    }
+
+    /**
+     * @return a cursor that reads everything written from now on.
+     */
+    public Cursor openCursor() {
+        return openCursor(writePosition);
+    }
+
+    /**
+     * @return a cursor that starts reading at the given position, or at the oldest position that
+     *         is still in the ring if it is older.
+     */
+    public Cursor openCursor(long position) {
+        long start = Math.max(position - (position % frameSize), getOldestPosition());
+        Cursor cursor = new Cursor(Math.min(start, writePosition));
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * End every open cursor at the current write position, e.g. when capture stops. Their readers
+     * get the rest of the audio up to here and then the end of the stream.
+     */
+    public void endCursors() {
+        long position = writePosition;
+        for (Cursor cursor : cursors) {
+            cursor.endAt(position);
+        }
+    }
+
+    /**
+     * Wait until no open cursor would be overrun by writing up to the given position.
+     */
+    private void awaitSpace(long end) {
+        producerWaiting = true;
+        try {
+            synchronized (waitLock) {
+                long slowest = getSlowestPosition();
+                long stuckSince = System.currentTimeMillis();
+                while (lossless && ((end - slowest) > capacity)) {
+                    waitLock.wait(PRODUCER_WAIT_MS);
+                    long position = getSlowestPosition();
+                    if (position != slowest) {
+                        slowest = position;
+                        stuckSince = System.currentTimeMillis();
+                    } else if ((System.currentTimeMillis() - stuckSince) >= ABANDONED_CURSOR_MS) {
+                        closeAbandonedCursors(slowest);
+                        slowest = getSlowestPosition();
+                        stuckSince = System.currentTimeMillis();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            producerWaiting = false;
+        }
+    }
+
+    /**
+     * @return the position of the open cursor furthest behind, or the write position if none
+     *         has anything left to read.
+     */
+    private long getSlowestPosition() {
+        long slowest = writePosition;
+        for (Cursor cursor : cursors) {
+            if (!cursor.isEnded()) {
+                slowest = Math.min(slowest, cursor.position);
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Close the ended cursors stuck at the given position. Cursors that haven't been ended are
+     * left to their readers.
+     */
+    private void closeAbandonedCursors(long position) {
+        for (Cursor cursor : cursors) {
+            if ((cursor.position == position) && (cursor.endPosition != Long.MAX_VALUE)
+                    && !cursor.isEnded()) {
+                log.warn("Closing an ended cursor with {} bytes unread for {} ms",
+                        cursor.endPosition - cursor.position, ABANDONED_CURSOR_MS);
+                cursor.close();
+            }
+        }
+    }
+
+    private void wakeReaders() {
+        synchronized (waitLock) {
+            waitLock.notifyAll();
+        }
+    }
+
+    /**
+     * One consumer's position in the ring, readable as an InputStream.
+     */
+    public class Cursor extends InputStream {
+        private volatile long position;
+        private volatile long endPosition = Long.MAX_VALUE;
+        private volatile boolean closed;
+        private long overrunCount;
+        private long overrunBytes;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Stop at the given position, after which reads return the end of the stream. An end
+         * that was already set earlier is kept.
+         */
+        public void endAt(long position) {
+            long end = Math.min(position - (position % frameSize), endPosition);
+            endPosition = Math.max(end, this.position);
+            wakeReaders();
+        }
+
+        public long getOverrunCount() {
+            return overrunCount;
+        }
+
+        public long getOverrunBytes() {
+            return overrunBytes;
+        }
+
+        @Override
+        public int available() {
+            if (closed) {
+                return 0;
+            }
+            return (int) Math.max(0, Math.min(writePosition, endPosition) - position);
+        }
+
+        @Override
+        public int read() {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == 1) ? (single[0] & 0xff) : -1;
+        }
+
+        /**
+         * Wait until audio is available and copy as much of it as fits, in whole frames if the
+         * length allows.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                long available = awaitAvailable();
+                if (available <= 0) {
+                    cursors.remove(this);
+                    return -1;
+                }
+                int length = (int) Math.min(len, available);
+                if (length >= frameSize) {
+                    length -= length % frameSize;
+                }
+
+                long start = position;
+                int offset = (int) (start % capacity);
+                int first = Math.min(length, capacity - offset);
+                System.arraycopy(buffer, offset, b, off, first);
+                if (first < length) {
+                    System.arraycopy(buffer, 0, b, off + first, length - first);
+                }
+
+                // The producer may have lapped us while we were copying
+                if (isOverrun(start)) {
+                    continue;
+                }
+                position = start + length;
+                if (producerWaiting) {
+                    wakeReaders();
+                }
+                return length;
+            }
+        }
+
+        /**
+         * Like {@link #read(byte[], int, int)}, but converts little endian 16 bit samples straight
+         * from the ring into the given array, so a consumer that works on samples needs no byte
+         * buffer of its own.
+         *
+         * @return the number of samples read, or -1 at the end of the stream.
+         */
+        public int readSamples(short[] samples, int off, int count) {
+            if (frameSize != 2) {
+                throw new IllegalStateException("Samples can only be read from 16 bit mono audio");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            while (true) {
+                long available = awaitAvailable();
+                if (available <= 0) {
+                    cursors.remove(this);
+                    return -1;
+                }
+                int length = (int) Math.min(count * 2L, available);
+
+                long start = position;
+                int index = (int) (start % capacity);
+                int end = off + (length / 2);
+                for (int i = off; i < end; i++) {
+                    samples[i] = (short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8));
+                    index += 2;
+                    if (index == capacity) {
+                        index = 0;
+                    }
+                }
+
+                if (isOverrun(start)) {
+                    continue;
+                }
+                position = start + length;
+                if (producerWaiting) {
+                    wakeReaders();
+                }
+                return length / 2;
+            }
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, available()));
+            skipped -= skipped % frameSize;
+            position += skipped;
+            if (producerWaiting) {
+                wakeReaders();
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            cursors.remove(this);
+            wakeReaders();
+        }
+
+        /**
+         * @return the bytes available to read, waiting for some if there are none, or 0 at the
+         *         end of the stream.
+         */
+        private long awaitAvailable() {
+            long available = available();
+            if ((available > 0) || isEnded()) {
+                return available;
+            }
+
+            waitingReaders.incrementAndGet();
+            try {
+                synchronized (waitLock) {
+                    while (((available = available()) == 0) && !isEnded()) {
+                        waitLock.wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            } finally {
+                waitingReaders.decrementAndGet();
+            }
+            return available;
+        }
+
+        private boolean isEnded() {
+            return closed || (position >= endPosition);
+        }
+
+        private boolean isOverrun(long start) {
+            long oldest = writeLimit - capacity;
+            if (start >= oldest) {
+                return false;
+            }
+            // Resume half a ring behind the producer so there is room before it laps us again
+            long resume = writePosition - (capacity / 2);
+            resume -= resume % frameSize;
+            overrunCount++;
+            overrunBytes += resume - start;
+            position = resume;
+            log.warn("Audio consumer fell more than {} bytes behind capture, skipped {} bytes",
+                    capacity, resume - start);
+            return true;
+        }
+    }
+}
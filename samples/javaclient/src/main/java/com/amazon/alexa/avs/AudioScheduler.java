@@ -0,0 +1,158 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all of the audio player's work on one event loop thread, so its state needs no locks and
+ * every change is acted on as soon as it happens rather than when a polling thread next looks.
+ * <p>
+ * Work that blocks for as long as audio plays, like waiting for speech to be played out, runs on a
+ * single output thread, and its completion is handed back to the loop. Both threads live as long
+ * as the player, so nothing is started per sound. They aren't the only audio threads: the
+ * {@link AudioMixer} writes to the line on its own thread, and the {@link SpeechPlayer} decodes on
+ * another, which also live as long as the player.
+ * <p>
+ * Work can also be scheduled to run on the loop later, like the steps of a gain ramp, so timed
+ * work doesn't need a thread of its own either.
+ */
+public class AudioScheduler {
+    private static final Logger log = LoggerFactory.getLogger(AudioScheduler.class);
+
+    private final ScheduledExecutorService loop;
+    private final ExecutorService output;
+    private volatile Thread loopThread;
+
+    private long taskCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public AudioScheduler() {
+        loop = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audio-loop");
+            thread.setDaemon(true);
+            loopThread = thread;
+            return thread;
+        });
+        output = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audio-output");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the task on the loop, after the tasks already queued.
+     */
+    public void execute(Runnable task) {
+        long queuedAt = System.nanoTime();
+        loop.execute(() -> {
+            record(System.nanoTime() - queuedAt);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Audio task failed", e);
+            }
+        });
+    }
+
+    /**
+     * Run the task on the loop once the delay has passed. How late it runs is recorded as its
+     * wait.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        long dueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        loop.schedule(() -> {
+            record(Math.max(0, System.nanoTime() - dueAt));
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Audio task failed", e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run the task on the loop and wait for it, e.g. so a directive isn't done until the player
+     * has taken it in. On the loop itself the task runs right away.
+     */
+    public void executeAndWait(Runnable task) {
+        if (isLoopThread()) {
+            task.run();
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        Future<?> done = loop.submit(() -> {
+            record(System.nanoTime() - queuedAt);
+            task.run();
+        });
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Audio task failed", e.getCause());
+        }
+    }
+
+    /**
+     * Run the blocking task on the output thread, then the completion on the loop.
+     */
+    public void executeOutput(Runnable task, Runnable completion) {
+        output.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Audio output failed", e);
+            } finally {
+                execute(completion);
+            }
+        });
+    }
+
+    public boolean isLoopThread() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * @return how long tasks waited to run on the loop, on average, in ms.
+     */
+    public synchronized double getAverageWaitMillis() {
+        return (taskCount == 0) ? 0 : (totalWaitNanos / 1e6) / taskCount;
+    }
+
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1e6;
+    }
+
+    public synchronized String getStats() {
+        return String.format("%d audio tasks, waited %.2f ms avg %.2f ms max", taskCount,
+                getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    public void shutdown() {
+        loop.shutdown();
+        output.shutdown();
+    }
+
+    private synchronized void record(long waitNanos) {
+        taskCount++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Where {@link AudioCapture} gets its audio from, e.g. the microphone or recorded files. The
+ * methods follow {@link javax.sound.sampled.TargetDataLine}.
+ */
+public interface AudioSource extends AudioRing.Source {
+
+    void open(AudioFormat format) throws LineUnavailableException;
+
+    void start();
+
+    void stop();
+
+    void close();
+
+    boolean isOpen();
+
+    /**
+     * Read audio, blocking until the length has been read or the source is stopped or closed.
+     *
+     * @return the number of bytes read.
+     */
+    @Override
+    int read(byte[] buffer, int offset, int length);
+
+    int available();
+
+    /**
+     * @return the size of the source's own buffer in bytes.
+     */
+    int getBufferSize();
+
+    /**
+     * @return whether the audio is captured live and so can't wait for slow consumers. Sources
+     *         that aren't live are only read as fast as every consumer keeps up, so no audio is
+     *         lost.
+     */
+    boolean isLive();
+}
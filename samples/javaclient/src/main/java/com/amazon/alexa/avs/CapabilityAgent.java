@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.exception.DirectiveHandlingException;
+import com.amazon.alexa.avs.message.response.Directive;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Handles the directives of one AVS interface namespace, e.g. Speaker or AudioPlayer.
+ * <p>
+ * A serialized agent handles one directive at a time, synchronized on its lock. Agents that work
+ * on the same state can share a lock to be serialized with each other. A concurrent agent's
+ * handlers may run at the same time on different directive threads, so they must be thread safe.
+ * Agents are registered with a {@link CapabilityAgentRegistry}, which routes each directive to its
+ * handler without waiting on any other agent.
+ */
+public class CapabilityAgent {
+
+    public enum Concurrency {
+        SERIALIZED,
+        CONCURRENT
+    }
+
+    public interface DirectiveHandler {
+        void handle(Directive directive) throws DirectiveHandlingException;
+    }
+
+    private final String namespace;
+    private final Concurrency concurrency;
+    private final Object lock;
+    private final Map<String, DirectiveHandler> handlers = new HashMap<>();
+
+    public CapabilityAgent(String namespace, Concurrency concurrency) {
+        this(namespace, concurrency, null);
+    }
+
+    /**
+     * @param lock
+     *            the object a serialized agent synchronizes on, or null to use the agent itself.
+     */
+    public CapabilityAgent(String namespace, Concurrency concurrency, Object lock) {
+        this.namespace = namespace;
+        this.concurrency = concurrency;
+        this.lock = (lock == null) ? this : lock;
+    }
+
+    /**
+     * Handle the directives with the given name in this namespace with the given handler.
+     *
+     * @return this agent, to register several handlers in a row.
+     */
+    public CapabilityAgent handles(String name, DirectiveHandler handler) {
+        handlers.put(name, handler);
+        return this;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public Object getLock() {
+        return lock;
+    }
+
+    public Map<String, DirectiveHandler> getHandlers() {
+        return Collections.unmodifiableMap(handlers);
+    }
+}
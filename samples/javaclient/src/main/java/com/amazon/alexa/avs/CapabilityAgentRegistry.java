@@ -0,0 +1,160 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.CapabilityAgent.Concurrency;
+import com.amazon.alexa.avs.CapabilityAgent.DirectiveHandler;
+import com.amazon.alexa.avs.exception.DirectiveHandlingException;
+import com.amazon.alexa.avs.message.response.Directive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table from the namespace and name of a directive to the handler of the
+ * {@link CapabilityAgent} for it, which also keeps the dispatch latency of each kind of directive.
+ */
+public class CapabilityAgentRegistry {
+    private static final Logger log = LoggerFactory.getLogger(CapabilityAgentRegistry.class);
+
+    private final Map<String, Map<String, Route>> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Route the directives the agent handles to it, replacing any earlier agent for them.
+     */
+    public void register(CapabilityAgent agent) {
+        Map<String, Route> names =
+                routes.computeIfAbsent(agent.getNamespace(), n -> new ConcurrentHashMap<>());
+        for (Map.Entry<String, DirectiveHandler> handler : agent.getHandlers().entrySet()) {
+            names.put(handler.getKey(), new Route(agent, handler.getValue()));
+        }
+    }
+
+    /**
+     * @return whether any agent handles directives in the namespace.
+     */
+    public boolean hasNamespace(String namespace) {
+        return routes.containsKey(namespace);
+    }
+
+    /**
+     * Hand the directive to the handler registered for it.
+     *
+     * @return false if no handler is registered for the directive.
+     */
+    public boolean dispatch(Directive directive) throws DirectiveHandlingException {
+        Map<String, Route> names = routes.get(directive.getNamespace());
+        Route route = (names == null) ? null : names.get(directive.getName());
+        if (route == null) {
+            return false;
+        }
+        route.dispatch(directive);
+        return true;
+    }
+
+    /**
+     * @return the dispatch latency of each kind of directive dispatched so far, by
+     *         "namespace.name".
+     */
+    public Map<String, DispatchLatency> getDispatchLatencies() {
+        Map<String, DispatchLatency> latencies = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Route>> namespace : routes.entrySet()) {
+            for (Map.Entry<String, Route> name : namespace.getValue().entrySet()) {
+                latencies.put(namespace.getKey() + "." + name.getKey(),
+                        name.getValue().latency.snapshot());
+            }
+        }
+        return latencies;
+    }
+
+    private static class Route {
+        private final CapabilityAgent agent;
+        private final DirectiveHandler handler;
+        private final DispatchLatency latency = new DispatchLatency();
+
+        Route(CapabilityAgent agent, DirectiveHandler handler) {
+            this.agent = agent;
+            this.handler = handler;
+        }
+
+        void dispatch(Directive directive) throws DirectiveHandlingException {
+            long start = System.nanoTime();
+            long waited = 0;
+            try {
+                if (agent.getConcurrency() == Concurrency.SERIALIZED) {
+                    synchronized (agent.getLock()) {
+                        waited = System.nanoTime() - start;
+                        handler.handle(directive);
+                    }
+                } else {
+                    handler.handle(directive);
+                }
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                latency.record(elapsed, waited);
+                log.debug("Dispatched {}.{} in {} ms, {} ms of it waiting for the agent",
+                        directive.getNamespace(), directive.getName(), elapsed / 1000000,
+                        waited / 1000000);
+            }
+        }
+    }
+
+    /**
+     * How long dispatching a kind of directive took, from the call to the end of its handler,
+     * and how much of that was spent waiting for a serialized agent.
+     */
+    public static class DispatchLatency {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long waitNanos;
+
+        private synchronized void record(long elapsedNanos, long waitedNanos) {
+            count++;
+            totalNanos += elapsedNanos;
+            maxNanos = Math.max(maxNanos, elapsedNanos);
+            waitNanos += waitedNanos;
+        }
+
+        private synchronized DispatchLatency snapshot() {
+            DispatchLatency snapshot = new DispatchLatency();
+            snapshot.count = count;
+            snapshot.totalNanos = totalNanos;
+            snapshot.maxNanos = maxNanos;
+            snapshot.waitNanos = waitNanos;
+            return snapshot;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getAverageMillis() {
+            return (count == 0) ? 0 : (totalNanos / 1e6) / count;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        public double getAverageWaitMillis() {
+            return (count == 0) ? 0 : (waitNanos / 1e6) / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d avg=%.2fms max=%.2fms avgWait=%.2fms", count,
+                    getAverageMillis(), getMaxMillis(), getAverageWaitMillis());
+        }
+    }
+}
@@ -35,6 +35,10 @@ public class DialogRequestIdAuthority {
         return currentDialogRequestId;
     }
 
+    public String getCurrentDialogRequestId() {
+        return currentDialogRequestId;
+    }
+
     public boolean isCurrentDialogRequestId(String candidateRequestId) {
         return currentDialogRequestId != null && currentDialogRequestId.equals(candidateRequestId);
     }
@@ -1,5 +1,6 @@
 package com.amazon.alexa.avs;
 
+import com.amazon.alexa.avs.DirectiveExecutor.Lane;
 import com.amazon.alexa.avs.http.MultipartParser.MultipartParserConsumer;
 import com.amazon.alexa.avs.message.Payload;
 import com.amazon.alexa.avs.message.response.AttachedContentPayload;
@@ -7,106 +8,154 @@ import com.amazon.alexa.avs.message.response.Directive;
 
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
 
 /**
  * The DirectiveEnqueuer takes parts parsed from a multipart parser, combines directves with their
- * attached content, and triages those directives into either the dependent directive queue or
- * independent directive queue.
+ * attached content, and triages those directives into either the dependent directive lane or
+ * independent directive lane of the {@link DirectiveExecutor}.
  *
  * Any directive with the current dialogRequestID is dependent on all the directives with that id
- * which came before it. These directives are added to the dependent directive queue. Any directive
- * with no dialogRequestId is dependent on nothing and is added to the independent directive queue.
+ * which came before it. These directives are added to the dependent directive lane. Any directive
+ * with no dialogRequestId is dependent on nothing and is added to the independent directive lane.
+ * The exception is SpeechRecognizer.StopCapture, which ends the recording of the current dialog
+ * and so is added to the independent lane to be handled as soon as it arrives.
+ *
+ * Directives waiting for an attachment are indexed by content id, and attachments that arrive
+ * before their directive are held in a bounded {@link AttachmentStore}, so matching a part is
+ * O(1) however many are outstanding.
  */
 public class DirectiveEnqueuer implements MultipartParserConsumer {
+    // Unclaimed attachments are dropped once they are this old, or the oldest ones are dropped
+    // when together they have buffered more than this
+    private static final long ATTACHMENT_TIME_TO_LIVE_MS = 30 * 1000;
+    private static final long ATTACHMENT_BYTE_BUDGET = 2 * 1024 * 1024;
 
     // The authority for the current dialogRequestId.
     private final DialogRequestIdAuthority dialogRequestIdAuthority;
 
-    // Queue made up of all dependent directives for the current dialogRequestId
-    private final Queue<Directive> dependentQueue;
+    // Lane made up of all dependent directives for the current dialogRequestId
+    private final Lane dependentLane;
 
-    // Queue made up of all directives without a dialogRequestId
-    private final Queue<Directive> independentQueue;
+    // Lane made up of all directives without a dialogRequestId
+    private final Lane independentLane;
 
     // Queue for incomplete directives. A directive is incomplete if it still needs some attached
-    // content to be associated with it.
+    // content to be associated with it. Directives are released from the front in order.
     private final Queue<Directive> incompleteDirectiveQueue;
 
-    // Map of all attachments which have not yet been matched with directives.
-    private final Map<String, InputStream> attachments;
+    // Directives in the incomplete queue which are waiting for an attachment, by content id.
+    private final Map<String, AttachedContentPayload> waitingForAttachment;
+
+    // All attachments which have not yet been matched with directives.
+    private final AttachmentStore attachments;
 
     public DirectiveEnqueuer(DialogRequestIdAuthority dialogRequestIdAuthority,
-            Queue<Directive> dependentQueue, Queue<Directive> independentQueue) {
+            Lane dependentLane, Lane independentLane) {
         this.dialogRequestIdAuthority = dialogRequestIdAuthority;
-        this.dependentQueue = dependentQueue;
-        this.independentQueue = independentQueue;
+        this.dependentLane = dependentLane;
+        this.independentLane = independentLane;
         incompleteDirectiveQueue = new LinkedList<>();
-        attachments = new HashMap<>();
+        waitingForAttachment = new HashMap<>();
+        attachments = new AttachmentStore(ATTACHMENT_BYTE_BUDGET, ATTACHMENT_TIME_TO_LIVE_MS);
     }
 
     @Override
     public synchronized void onDirective(Directive directive) {
+        Payload payload = directive.getPayload();
+        if (payload instanceof AttachedContentPayload) {
+            AttachedContentPayload attachedContentPayload = (AttachedContentPayload) payload;
+            String contentId = attachedContentPayload.getAttachedContentId();
+
+            InputStream attachment = attachments.remove(contentId);
+            if (attachment != null) {
+                attachedContentPayload.setAttachedContent(contentId, attachment);
+            } else if (attachedContentPayload.requiresAttachedContent()) {
+                waitingForAttachment.put(contentId, attachedContentPayload);
+            }
+        }
+
         incompleteDirectiveQueue.add(directive);
-        matchAttachementsWithDirectives();
+        findCompleteDirectives();
     }
 
     @Override
     public synchronized void onDirectiveAttachment(String contentId,
             InputStream attachmentContent) {
-        attachments.put(contentId, attachmentContent);
-        matchAttachementsWithDirectives();
+        AttachedContentPayload attachedContentPayload = waitingForAttachment.remove(contentId);
+        if (attachedContentPayload != null) {
+            attachedContentPayload.setAttachedContent(contentId, attachmentContent);
+            findCompleteDirectives();
+        } else {
+            attachments.put(contentId, attachmentContent);
+        }
     }
 
-    private void matchAttachementsWithDirectives() {
-        for (Directive directive : incompleteDirectiveQueue) {
-            Payload payload = directive.getPayload();
-            if (payload instanceof AttachedContentPayload) {
-                AttachedContentPayload attachedContentPayload = (AttachedContentPayload) payload;
-                String contentId = attachedContentPayload.getAttachedContentId();
-
-                InputStream attachment = attachments.remove(contentId);
-                if (attachment != null) {
-                    attachedContentPayload.setAttachedContent(contentId, attachment);
-                }
-            }
-        }
+    /**
+     * @return the number of attachments waiting for their directive.
+     */
+    public synchronized int getUnclaimedAttachmentCount() {
+        return attachments.size();
+    }
 
-        findCompleteDirectives();
+    /**
+     * @return the bytes buffered by the attachments waiting for their directive.
+     */
+    public synchronized long getUnclaimedAttachmentBytes() {
+        return attachments.getBufferedBytes();
+    }
+
+    /**
+     * @return the number of attachments dropped because no directive claimed them in time.
+     */
+    public synchronized long getOrphanedAttachmentCount() {
+        return attachments.getOrphanedCount();
+    }
+
+    /**
+     * @return the number of attachments dropped for any reason, including orphans.
+     */
+    public synchronized long getDroppedAttachmentCount() {
+        return attachments.getDroppedCount();
     }
 
+    /**
+     * Release the directives at the front of the queue which are complete. Only the front has to
+     * be looked at, because a directive waiting for its attachment holds back those behind it.
+     */
     private void findCompleteDirectives() {
-        Iterator<Directive> iterator = incompleteDirectiveQueue.iterator();
-        while (iterator.hasNext()) {
-            Directive directive = iterator.next();
+        Directive directive;
+        while ((directive = incompleteDirectiveQueue.peek()) != null) {
             Payload payload = directive.getPayload();
-            if (payload instanceof AttachedContentPayload) {
-                AttachedContentPayload attachedContentPayload = (AttachedContentPayload) payload;
-
-                if (!attachedContentPayload.requiresAttachedContent()) {
-                    // The front most directive IS complete.
-                    enqueueDirective(directive);
-                    iterator.remove();
-                } else {
-                    break;
-                }
-            } else {
-                // Immediately enqueue any directive which does not contain audio content
-                enqueueDirective(directive);
-                iterator.remove();
+            if ((payload instanceof AttachedContentPayload)
+                    && ((AttachedContentPayload) payload).requiresAttachedContent()) {
+                break;
             }
+            // Any directive which does not contain audio content is enqueued immediately
+            enqueueDirective(incompleteDirectiveQueue.poll());
         }
     }
 
     private void enqueueDirective(Directive directive) {
         String dialogRequestId = directive.getDialogRequestId();
         if (dialogRequestId == null) {
-            independentQueue.add(directive);
+            independentLane.add(directive);
         } else if (dialogRequestIdAuthority.isCurrentDialogRequestId(dialogRequestId)) {
-            dependentQueue.add(directive);
+            if (isStopCapture(directive)) {
+                // Nothing before it has to run first, and the dependent lane is paused while
+                // Alexa speaks, which mustn't hold the microphone open
+                independentLane.add(directive);
+            } else {
+                dependentLane.add(directive);
+            }
         }
     }
+
+    private static boolean isStopCapture(Directive directive) {
+        return AVSAPIConstants.SpeechRecognizer.NAMESPACE.equals(directive.getNamespace())
+                && AVSAPIConstants.SpeechRecognizer.Directives.StopCapture.NAME
+                        .equals(directive.getName());
+    }
 }
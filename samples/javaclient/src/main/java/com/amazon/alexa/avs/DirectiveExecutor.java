@@ -0,0 +1,256 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.message.response.Directive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs directives through a {@link DirectiveDispatcher} in named serial lanes.
+ * <p>
+ * Each lane dispatches its directives one at a time in the order they were added, independently
+ * of the other lanes. A lane can be paused, e.g. while Alexa is speaking, and directives belonging
+ * to a dialog that is no longer current are cancelled instead of dispatched. The lanes share a
+ * fixed pool with one thread per lane, so no thread is created after startup.
+ */
+public class DirectiveExecutor {
+    private static final Logger log = LoggerFactory.getLogger(DirectiveExecutor.class);
+
+    private final DirectiveDispatcher dispatcher;
+    private final DialogRequestIdAuthority dialogRequestIdAuthority;
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final ExecutorService pool;
+    private volatile boolean started;
+
+    public DirectiveExecutor(DirectiveDispatcher dispatcher,
+            DialogRequestIdAuthority dialogRequestIdAuthority, String... laneNames) {
+        this.dispatcher = dispatcher;
+        this.dialogRequestIdAuthority = dialogRequestIdAuthority;
+        for (String name : laneNames) {
+            lanes.put(name, new Lane(name));
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("DirectiveExecutor-" + threadCount.incrementAndGet());
+            return thread;
+        };
+        pool = Executors.newFixedThreadPool(laneNames.length, threadFactory);
+    }
+
+    /**
+     * Start dispatching. Directives added before this are held until then.
+     */
+    public void start() {
+        started = true;
+        for (Lane lane : lanes.values()) {
+            lane.schedule();
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public Lane getLane(String name) {
+        return lanes.get(name);
+    }
+
+    public Collection<Lane> getLanes() {
+        return Collections.unmodifiableCollection(lanes.values());
+    }
+
+    /**
+     * Cancel every queued directive that belongs to a dialog other than the current one.
+     */
+    public void cancelStaleDirectives() {
+        for (Lane lane : lanes.values()) {
+            lane.cancelStale();
+        }
+    }
+
+    private boolean isStale(Directive directive) {
+        String dialogRequestId = directive.getDialogRequestId();
+        return (dialogRequestId != null)
+                && !dialogRequestIdAuthority.isCurrentDialogRequestId(dialogRequestId);
+    }
+
+    /**
+     * A queue of directives which are dispatched one at a time, along with its metrics.
+     */
+    public class Lane {
+        private final String name;
+        private final Queue<QueuedDirective> queue = new ArrayDeque<>();
+        private boolean paused;
+        private boolean running;
+        private int maxQueueDepth;
+        private long dispatchedCount;
+        private long cancelledCount;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized void add(Directive directive) {
+            queue.add(new QueuedDirective(directive, System.nanoTime()));
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+            schedule();
+        }
+
+        /**
+         * Stop dispatching after the directive being dispatched, if any.
+         */
+        public synchronized void pause() {
+            paused = true;
+        }
+
+        public synchronized void resume() {
+            paused = false;
+            schedule();
+        }
+
+        public synchronized boolean isPaused() {
+            return paused;
+        }
+
+        public synchronized int getQueueDepth() {
+            return queue.size();
+        }
+
+        public synchronized int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public synchronized long getDispatchedCount() {
+            return dispatchedCount;
+        }
+
+        public synchronized long getCancelledCount() {
+            return cancelledCount;
+        }
+
+        /**
+         * @return the average time directives waited in this lane before being dispatched.
+         */
+        public synchronized double getAverageWaitMillis() {
+            return (dispatchedCount == 0) ? 0 : (totalWaitNanos / 1e6) / dispatchedCount;
+        }
+
+        public synchronized double getMaxWaitMillis() {
+            return maxWaitNanos / 1e6;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(
+                    "%s: depth=%d maxDepth=%d dispatched=%d cancelled=%d avgWait=%.2fms "
+                            + "maxWait=%.2fms%s",
+                    name, queue.size(), maxQueueDepth, dispatchedCount, cancelledCount,
+                    getAverageWaitMillis(), getMaxWaitMillis(), paused ? " (paused)" : "");
+        }
+
+        /**
+         * Cancel every queued directive, e.g. when the user has asked for everything to stop.
+         */
+        public synchronized void cancelAll() {
+            QueuedDirective queued;
+            while ((queued = queue.poll()) != null) {
+                cancelled(queued.directive, "the lane was cleared");
+            }
+        }
+
+        private synchronized void cancelStale() {
+            Iterator<QueuedDirective> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                Directive directive = iterator.next().directive;
+                if (isStale(directive)) {
+                    iterator.remove();
+                    cancelled(directive, "its dialog is no longer current");
+                }
+            }
+        }
+
+        private void cancelled(Directive directive, String reason) {
+            cancelledCount++;
+            log.info("Cancelled {}.{} in lane {}, {}", directive.getNamespace(),
+                    directive.getName(), name, reason);
+        }
+
+        private synchronized void schedule() {
+            if (started && !running && !paused && !queue.isEmpty()) {
+                running = true;
+                pool.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Directive directive;
+                synchronized (this) {
+                    QueuedDirective next = paused ? null : queue.poll();
+                    if (next == null) {
+                        running = false;
+                        return;
+                    }
+                    directive = next.directive;
+                    if (isStale(directive)) {
+                        cancelled(directive, "its dialog is no longer current");
+                        continue;
+                    }
+
+                    long waited = System.nanoTime() - next.queuedAtNanos;
+                    dispatchedCount++;
+                    totalWaitNanos += waited;
+                    maxWaitNanos = Math.max(maxWaitNanos, waited);
+                    log.debug("Dispatching {}.{} in lane {} after {} ms, {} more queued",
+                            directive.getNamespace(), directive.getName(), name,
+                            waited / 1000000, queue.size());
+                }
+
+                try {
+                    dispatcher.dispatch(directive);
+                } catch (RuntimeException e) {
+                    log.error("Failed to dispatch {}.{} in lane {}", directive.getNamespace(),
+                            directive.getName(), name, e);
+                }
+            }
+        }
+    }
+
+    private static class QueuedDirective {
+        private final Directive directive;
+        private final long queuedAtNanos;
+
+        QueuedDirective(Directive directive, long queuedAtNanos) {
+            this.directive = directive;
+            this.queuedAtNanos = queuedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Plays short sounds, like the start and stop listening tones and the alarm, from PCM decoded
+ * once when they are loaded, through the {@link AudioMixer}.
+ * <p>
+ * Playing a sound only hands it to the mixer, without decoding, opening a line or starting a
+ * thread. A sound started with {@link #play(String)} replaces the one played once before it. A
+ * sound started with {@link #loop(String)} repeats until it is stopped, and sounds played once
+ * are mixed over it.
+ */
+public class EarconPlayer {
+    private static final Logger log = LoggerFactory.getLogger(EarconPlayer.class);
+
+    // Every sound is converted to the mixer's format when it is loaded
+    private static final AudioFormat FORMAT = AudioMixer.FORMAT;
+
+    private final ClassLoader resourceLoader;
+    private final AudioMixer mixer;
+    private final Map<String, byte[]> sounds = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private AudioMixer.Input oneShot;
+    private AudioMixer.Input loop;
+    private float loopGain = 1;
+
+    private volatile long lastStartLatencyNanos;
+    private volatile long maxStartLatencyNanos;
+
+    public EarconPlayer(ClassLoader resourceLoader, AudioMixer mixer) {
+        this.resourceLoader = resourceLoader;
+        this.mixer = mixer;
+    }
+
+    /**
+     * Decode an MP3 resource so it can be played. Resources that aren't loaded aren't played.
+     */
+    public void load(String resource) throws IOException {
+        InputStream stream = resourceLoader.getResourceAsStream(resource);
+        if (stream == null) {
+            throw new IOException("No resource " + resource);
+        }
+        try {
+            long start = System.nanoTime();
+            byte[] pcm = decode(stream);
+            sounds.put(resource, pcm);
+            log.debug("Loaded {}: {} ms of audio decoded in {} ms", resource,
+                    (pcm.length / FORMAT.getFrameSize() * 1000L) / (long) FORMAT.getFrameRate(),
+                    (System.nanoTime() - start) / 1000000);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    public boolean isLoaded(String resource) {
+        return sounds.containsKey(resource);
+    }
+
+    /**
+     * Play a loaded sound once, in place of any sound played once that hasn't finished.
+     *
+     * @return false if the sound isn't loaded.
+     * @throws LineUnavailableException
+     *             if the mixer has no output line.
+     */
+    public synchronized boolean play(String resource) throws LineUnavailableException {
+        byte[] pcm = sounds.get(resource);
+        if (pcm == null) {
+            return false;
+        }
+        if (oneShot != null) {
+            oneShot.remove();
+        }
+        oneShot = mixer.add(new Sound(pcm, false), FORMAT);
+        return true;
+    }
+
+    /**
+     * Repeat a loaded sound until {@link #stopLoop()}, in place of any sound looping.
+     *
+     * @return false if the sound isn't loaded.
+     * @throws LineUnavailableException
+     *             if the mixer has no output line.
+     */
+    public synchronized boolean loop(String resource) throws LineUnavailableException {
+        byte[] pcm = sounds.get(resource);
+        if (pcm == null) {
+            return false;
+        }
+        stopLoop();
+        loop = mixer.add(new Sound(pcm, true), FORMAT);
+        loop.setGain(loopGain);
+        return true;
+    }
+
+    public synchronized void stopLoop() {
+        if (loop != null) {
+            loop.remove();
+            loop = null;
+        }
+    }
+
+    /**
+     * Scale the looping sound, e.g. to duck the alarm. Sounds played once are always at full
+     * gain.
+     *
+     * @param gain
+     *            from 0 to 1.
+     */
+    public synchronized void setLoopGain(float gain) {
+        loopGain = gain;
+        if (loop != null) {
+            loop.setGain(gain);
+        }
+    }
+
+    /**
+     * Stop any sound, whether played once or looping.
+     */
+    public synchronized void stop() {
+        stopLoop();
+        if (oneShot != null) {
+            oneShot.remove();
+            oneShot = null;
+        }
+    }
+
+    /**
+     * @return whether a sound played once hasn't finished, including what is still in the line.
+     */
+    public synchronized boolean isPlayingOneShot() {
+        return (oneShot != null) && !oneShot.isFinished();
+    }
+
+    public synchronized boolean isLooping() {
+        return loop != null;
+    }
+
+    /**
+     * @return how long the last sound took from being played to its first audio being mixed, in
+     *         microseconds.
+     */
+    public long getLastStartLatencyMicros() {
+        return lastStartLatencyNanos / 1000;
+    }
+
+    public long getMaxStartLatencyMicros() {
+        return maxStartLatencyNanos / 1000;
+    }
+
+    public void close() {
+        stop();
+    }
+
+    /**
+     * A loaded sound, read by the mixer.
+     */
+    private class Sound implements AudioMixer.Source {
+        private final byte[] pcm;
+        private final boolean repeat;
+        private final long requestedAtNanos = System.nanoTime();
+        private int position;
+
+        Sound(byte[] pcm, boolean repeat) {
+            this.pcm = pcm;
+            this.repeat = repeat;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == 0) {
+                long latency = System.nanoTime() - requestedAtNanos;
+                lastStartLatencyNanos = latency;
+                maxStartLatencyNanos = Math.max(maxStartLatencyNanos, latency);
+            }
+            if (position >= pcm.length) {
+                if (!repeat) {
+                    return -1;
+                }
+                position = 0;
+            }
+            int copied = Math.min(length, pcm.length - position);
+            System.arraycopy(pcm, position, buffer, offset, copied);
+            position += copied;
+            return copied;
+        }
+    }
+
+    /**
+     * Decode the whole MP3 and convert it to the format the line plays.
+     */
+    private static byte[] decode(InputStream stream) throws IOException {
+        Bitstream bitstream = new Bitstream(stream);
+        Decoder decoder = new Decoder();
+        short[] samples = new short[0];
+        int length = 0;
+        int sampleRate = 0;
+        int channels = 0;
+        try {
+            Header header;
+            while ((header = bitstream.readFrame()) != null) {
+                SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                sampleRate = output.getSampleFrequency();
+                channels = output.getChannelCount();
+                int frameLength = output.getBufferLength();
+                if (length + frameLength > samples.length) {
+                    short[] grown = new short[Math.max(samples.length * 2, length + frameLength)];
+                    System.arraycopy(samples, 0, grown, 0, length);
+                    samples = grown;
+                }
+                System.arraycopy(output.getBuffer(), 0, samples, length, frameLength);
+                length += frameLength;
+                bitstream.closeFrame();
+            }
+        } catch (JavaLayerException e) {
+            throw new IOException("Failed to decode MP3", e);
+        } finally {
+            try {
+                bitstream.close();
+            } catch (JavaLayerException e) {
+                log.debug("Failed to close MP3 bitstream", e);
+            }
+        }
+        if (channels == 0) {
+            throw new IOException("No MP3 frames");
+        }
+        return convert(samples, length / channels, channels, sampleRate);
+    }
+
+    /**
+     * Resample interleaved samples linearly to the line's rate and map them to its channels, as
+     * little endian bytes.
+     */
+    private static byte[] convert(short[] samples, int frames, int channels, int sampleRate) {
+        int outChannels = FORMAT.getChannels();
+        double step = sampleRate / (double) FORMAT.getSampleRate();
+        int outFrames = (int) (frames / step);
+        byte[] pcm = new byte[outFrames * outChannels * 2];
+        int out = 0;
+        for (int i = 0; i < outFrames; i++) {
+            double position = i * step;
+            int frame = (int) position;
+            int next = Math.min(frame + 1, frames - 1);
+            double fraction = position - frame;
+            for (int channel = 0; channel < outChannels; channel++) {
+                int in = Math.min(channel, channels - 1);
+                double a = samples[(frame * channels) + in];
+                double b = samples[(next * channels) + in];
+                int sample = (int) Math.round(a + ((b - a) * fraction));
+                pcm[out++] = (byte) sample;
+                pcm[out++] = (byte) (sample >> 8);
+            }
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+/**
+ * Told when an {@link Endpointer} decides a recording should end. Called on the capture thread,
+ * so implementations must return quickly.
+ */
+public interface EndpointListener {
+    /**
+     * @param reason
+     *            why the recording should end.
+     * @param endSampleIndex
+     *            the capture sample the request audio can end at: where the speech ended, or the
+     *            current sample if it didn't.
+     */
+    void onEndpoint(Endpointer.Reason reason, long endSampleIndex);
+}
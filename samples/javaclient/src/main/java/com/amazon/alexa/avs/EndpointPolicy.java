@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+/**
+ * When an {@link Endpointer} ends a recording, all in milliseconds of audio.
+ */
+public class EndpointPolicy {
+    /**
+     * Ends a recording after 2 seconds without speech, from its start or after speech, with no
+     * minimum or maximum length.
+     */
+    public static final EndpointPolicy HANGOVER_ONLY = new EndpointPolicy(2000, 2000, 0, 0);
+
+    private final int leadingSilenceMs;
+    private final int trailingSilenceMs;
+    private final int minSpeechMs;
+    private final int maxUtteranceMs;
+
+    /**
+     * @param leadingSilenceMs
+     *            how long to wait for speech before giving up on the recording.
+     * @param trailingSilenceMs
+     *            the silence after speech that ends the recording.
+     * @param minSpeechMs
+     *            speech shorter than this, e.g. a cough, doesn't count, and silence after it
+     *            doesn't end the recording.
+     * @param maxUtteranceMs
+     *            the longest recording, or 0 for no limit.
+     */
+    public EndpointPolicy(int leadingSilenceMs, int trailingSilenceMs, int minSpeechMs,
+            int maxUtteranceMs) {
+        this.leadingSilenceMs = leadingSilenceMs;
+        this.trailingSilenceMs = trailingSilenceMs;
+        this.minSpeechMs = minSpeechMs;
+        this.maxUtteranceMs = maxUtteranceMs;
+    }
+
+    public int getLeadingSilenceMs() {
+        return leadingSilenceMs;
+    }
+
+    public int getTrailingSilenceMs() {
+        return trailingSilenceMs;
+    }
+
+    public int getMinSpeechMs() {
+        return minSpeechMs;
+    }
+
+    public int getMaxUtteranceMs() {
+        return maxUtteranceMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("leading %d ms, trailing %d ms, min speech %d ms, max %d ms",
+                leadingSilenceMs, trailingSilenceMs, minSpeechMs, maxUtteranceMs);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Decides when a recording should end, from the speech boundaries of the
+ * {@link VoiceActivityDetector} run on the capture and an {@link EndpointPolicy}.
+ * <p>
+ * A recording ends when speech of at least the minimum length is followed by the trailing
+ * silence, when no such speech starts within the leading silence, or at the maximum length. The
+ * decision is made once per recording and reported to the listeners with the sample the request
+ * audio can be cut at. When the recording actually stops, the time since the speech ended is
+ * measured, so the whole end of speech to stop latency is known, not just the policy's part.
+ */
+public class Endpointer implements VoiceActivityListener {
+    private static final Logger log = LoggerFactory.getLogger(Endpointer.class);
+
+    public enum Reason {
+        END_OF_SPEECH,
+        NO_SPEECH,
+        MAX_LENGTH
+    }
+
+    private final float sampleRate;
+    private final List<EndpointListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile EndpointPolicy policy;
+
+    // The recording being endpointed, in samples since its first one
+    private boolean active;
+    private long firstSampleIndex;
+    private long speechStart = -1;
+    private long speechSamples;
+    private boolean decided;
+    private Reason reason;
+    private long endSample;
+
+    private final long[] reasonCounts = new long[Reason.values().length];
+    private long stops;
+    private double lastDecisionMillis;
+    private double lastStopMillis;
+    private double totalStopMillis;
+    private double maxStopMillis;
+
+    public Endpointer(EndpointPolicy policy, float sampleRate) {
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+    }
+
+    public EndpointPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Takes effect from the next recording.
+     */
+    public void setPolicy(EndpointPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void addListener(EndpointListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(EndpointListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start endpointing a recording whose voice activity detection starts at the given capture
+     * sample.
+     */
+    public synchronized void start(long firstSampleIndex) {
+        this.firstSampleIndex = firstSampleIndex;
+        active = true;
+        speechStart = -1;
+        speechSamples = 0;
+        decided = false;
+        reason = null;
+    }
+
+    @Override
+    public synchronized void onSpeechStarted(long sampleIndex) {
+        if (active && !decided) {
+            speechStart = sampleIndex;
+        }
+    }
+
+    @Override
+    public synchronized void onSpeechEnded(long sampleIndex) {
+        if (!active || decided || (speechStart < 0)) {
+            return;
+        }
+        speechSamples += sampleIndex - speechStart;
+        speechStart = -1;
+        if (speechSamples >= millisToSamples(policy.getMinSpeechMs())) {
+            decide(Reason.END_OF_SPEECH, sampleIndex,
+                    sampleIndex + millisToSamples(policy.getTrailingSilenceMs()));
+        }
+    }
+
+    /**
+     * Check the length limits after the detector has processed the given number of samples of
+     * the recording.
+     */
+    public synchronized void update(long samplesProcessed) {
+        if (!active || decided) {
+            return;
+        }
+        EndpointPolicy current = policy;
+        if ((current.getMaxUtteranceMs() > 0)
+                && (samplesProcessed >= millisToSamples(current.getMaxUtteranceMs()))) {
+            decide(Reason.MAX_LENGTH, samplesProcessed, samplesProcessed);
+        } else if ((speechStart < 0)
+                && (speechSamples < millisToSamples(current.getMinSpeechMs()))
+                && (samplesProcessed >= millisToSamples(current.getLeadingSilenceMs()))) {
+            decide(Reason.NO_SPEECH, samplesProcessed, samplesProcessed);
+        }
+    }
+
+    /**
+     * The recording stopped at the given capture sample, for whatever reason.
+     */
+    public synchronized void stopped(long sampleIndex) {
+        if (!active) {
+            return;
+        }
+        active = false;
+        if (!decided) {
+            log.debug("Recording stopped before it was endpointed");
+            return;
+        }
+        lastStopMillis = samplesToMillis(sampleIndex - (firstSampleIndex + endSample));
+        stops++;
+        totalStopMillis += lastStopMillis;
+        maxStopMillis = Math.max(maxStopMillis, lastStopMillis);
+        log.info("Endpointed by {}: decided {} ms and stopped {} ms after the speech ended",
+                reason, Math.round(lastDecisionMillis), Math.round(lastStopMillis));
+    }
+
+    public synchronized Reason getLastReason() {
+        return reason;
+    }
+
+    public synchronized long getCount(Reason reason) {
+        return reasonCounts[reason.ordinal()];
+    }
+
+    /**
+     * @return how long after the speech ended the last recording was endpointed, mostly the
+     *         trailing silence.
+     */
+    public synchronized double getLastDecisionMillis() {
+        return lastDecisionMillis;
+    }
+
+    /**
+     * @return how long after the speech ended the last endpointed recording actually stopped.
+     */
+    public synchronized double getLastStopMillis() {
+        return lastStopMillis;
+    }
+
+    public synchronized double getAverageStopMillis() {
+        return (stops == 0) ? 0 : totalStopMillis / stops;
+    }
+
+    public synchronized double getMaxStopMillis() {
+        return maxStopMillis;
+    }
+
+    public synchronized String getStats() {
+        return String.format(
+                "%d end of speech, %d no speech, %d max length; end of speech to stop last "
+                        + "%.0f ms, avg %.0f ms, max %.0f ms",
+                getCount(Reason.END_OF_SPEECH), getCount(Reason.NO_SPEECH),
+                getCount(Reason.MAX_LENGTH), lastStopMillis, getAverageStopMillis(),
+                maxStopMillis);
+    }
+
+    private void decide(Reason reason, long speechEnd, long decidedAt) {
+        decided = true;
+        this.reason = reason;
+        endSample = speechEnd;
+        reasonCounts[reason.ordinal()]++;
+        lastDecisionMillis = samplesToMillis(decidedAt - speechEnd);
+        long endSampleIndex = firstSampleIndex + speechEnd;
+        for (EndpointListener listener : listeners) {
+            listener.onEndpoint(reason, endSampleIndex);
+        }
+    }
+
+    private long millisToSamples(long millis) {
+        return (long) ((millis * sampleRate) / 1000);
+    }
+
+    private double samplesToMillis(long samples) {
+        return (samples * 1000.0) / sampleRate;
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Audio read from a corpus of WAV and raw PCM files, one after another, for running the capture
+ * pipeline without a microphone. WAV files are converted to the capture format if they differ;
+ * any other file is taken to be raw PCM in the capture format already. The source closes itself
+ * after the last file.
+ * <p>
+ * It can be paced like a live microphone, or read as fast as the consumers keep up. Either way it
+ * isn't live, so no audio is dropped and runs over the same files are repeatable.
+ */
+public class FileAudioSource implements AudioSource {
+    private static final Logger log = LoggerFactory.getLogger(FileAudioSource.class);
+
+    private static final int BUFFER_SIZE_IN_MS = 500;
+    private static final long IDLE_WAIT_MS = 10;
+
+    public enum Pacing {
+        // Deliver audio no faster than it would be captured
+        REAL_TIME,
+        // Deliver audio as fast as it is read
+        UNTHROTTLED
+    }
+
+    private final List<File> files;
+    private final Pacing pacing;
+    private AudioFormat format;
+    private double bytesPerSecond;
+    private int nextFile;
+    private InputStream current;
+    private volatile boolean open;
+    private volatile boolean running;
+    private long bytesRead;
+    // When the audio read so far started, if it had been captured live
+    private long startNanos;
+
+    public FileAudioSource(List<File> files, Pacing pacing) {
+        this.files = new ArrayList<>(files);
+        this.pacing = pacing;
+    }
+
+    /**
+     * @return the files at the given paths, with each directory replaced by the WAV and raw files
+     *         in it in name order.
+     */
+    public static List<File> listCorpus(String... paths) {
+        List<File> corpus = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles((dir, name) -> isAudioFile(name));
+                if (children != null) {
+                    Arrays.sort(children);
+                    Collections.addAll(corpus, children);
+                }
+            } else {
+                corpus.add(file);
+            }
+        }
+        return corpus;
+    }
+
+    private static boolean isAudioFile(String name) {
+        String lowerCase = name.toLowerCase();
+        return lowerCase.endsWith(".wav") || lowerCase.endsWith(".raw")
+                || lowerCase.endsWith(".pcm");
+    }
+
+    @Override
+    public synchronized void open(AudioFormat format) throws LineUnavailableException {
+        if (files.isEmpty()) {
+            throw new LineUnavailableException("No audio files to read");
+        }
+        this.format = format;
+        bytesPerSecond = format.getFrameRate() * format.getFrameSize();
+        nextFile = 0;
+        bytesRead = 0;
+        open = true;
+    }
+
+    @Override
+    public synchronized void start() {
+        // Pace from here, as if what was already read had been captured just before
+        startNanos = System.nanoTime() - (long) ((bytesRead / bytesPerSecond) * 1e9);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        running = false;
+        IOUtils.closeQuietly(current);
+        current = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (!running) {
+            idle();
+            return 0;
+        }
+
+        int total;
+        synchronized (this) {
+            total = 0;
+            while ((total < length) && open) {
+                if ((current == null) && !openNextFile()) {
+                    log.info("Finished reading {} audio files", files.size());
+                    close();
+                    break;
+                }
+                try {
+                    int read = current.read(buffer, offset + total, length - total);
+                    if (read < 0) {
+                        IOUtils.closeQuietly(current);
+                        current = null;
+                    } else {
+                        total += read;
+                    }
+                } catch (IOException e) {
+                    log.error("Failed to read audio file, skipping the rest of it", e);
+                    IOUtils.closeQuietly(current);
+                    current = null;
+                }
+            }
+            bytesRead += total;
+        }
+
+        if (pacing == Pacing.REAL_TIME) {
+            pace();
+        }
+        return total;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public int getBufferSize() {
+        int frameSize = format.getFrameSize();
+        int bytes = (int) ((bytesPerSecond * BUFFER_SIZE_IN_MS) / 1000);
+        return bytes - (bytes % frameSize);
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    /**
+     * Open the next file that can be read in the capture format.
+     *
+     * @return false if there are no more files.
+     */
+    private boolean openNextFile() {
+        while (nextFile < files.size()) {
+            File file = files.get(nextFile++);
+            try {
+                current = openFile(file);
+                log.debug("Reading audio from {}", file);
+                return true;
+            } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+                log.error("Skipping audio file {} that can't be read as {}", file, format, e);
+            }
+        }
+        return false;
+    }
+
+    private InputStream openFile(File file) throws IOException, UnsupportedAudioFileException {
+        if (!file.getName().toLowerCase().endsWith(".wav")) {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+        AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+        if (!stream.getFormat().matches(format)) {
+            stream = AudioSystem.getAudioInputStream(format, stream);
+        }
+        return new BufferedInputStream(stream);
+    }
+
+    /**
+     * Wait until the audio read so far would have been captured by now.
+     */
+    private void pace() {
+        long dueNanos = startNanos + (long) ((bytesRead / bytesPerSecond) * 1e9);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void idle() {
+        try {
+            Thread.sleep(IDLE_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Live audio from a microphone line.
+ */
+public class MicrophoneAudioSource implements AudioSource {
+    private final TargetDataLine line;
+
+    public MicrophoneAudioSource(TargetDataLine line) {
+        this.line = line;
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        line.open(format);
+    }
+
+    @Override
+    public void start() {
+        line.start();
+    }
+
+    @Override
+    public void stop() {
+        line.stop();
+    }
+
+    @Override
+    public void close() {
+        line.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return line.isOpen();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        return line.read(buffer, offset, length);
+    }
+
+    @Override
+    public int available() {
+        return line.available();
+    }
+
+    @Override
+    public int getBufferSize() {
+        return line.getBufferSize();
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Plays Alexa's speech, MP3 that may still be arriving, in two stages so a slow decode doesn't
+ * become a gap in the audio.
+ * <p>
+ * A decoder thread decodes frames as soon as they arrive into a lossless {@link AudioRing} of a
+ * few seconds, and the {@link AudioMixer} mixes from the ring. When the decoder falls behind, the
+ * mixer plays what was decoded ahead while it catches up, and if the ring runs dry the speech is
+ * silent for a period rather than holding up the rest of the mix.
+ * <p>
+ * {@link #play(InputStream)} returns when the last sample has been played out of the mixer, and
+ * {@link #getPositionMillis()} is what has actually been played, not what has been decoded.
+ */
+public class SpeechPlayer {
+    private static final Logger log = LoggerFactory.getLogger(SpeechPlayer.class);
+
+    private static final int DECODE_AHEAD_MS = 3000;
+
+    private final AudioMixer mixer;
+    private final ExecutorService decoderExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "speech-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Item current;
+    private volatile long lastPositionMillis;
+
+    private long itemCount;
+    private long stallCount;
+    private long totalStallNanos;
+
+    public SpeechPlayer(AudioMixer mixer) {
+        this.mixer = mixer;
+    }
+
+    /**
+     * Play the MP3 stream to the end, or until {@link #stop()}, and close it.
+     *
+     * @return true if all of it was played, false if it was stopped.
+     * @throws LineUnavailableException
+     *             if the mixer has no output line.
+     * @throws IOException
+     *             if the stream can't be decoded.
+     */
+    public boolean play(InputStream mp3) throws LineUnavailableException, IOException {
+        Item item = new Item(mp3);
+        current = item;
+        try {
+            SampleBuffer first = item.decodeFrame();
+            if (first == null) {
+                return true;
+            }
+            AudioFormat format = new AudioFormat(first.getSampleFrequency(), 16,
+                    first.getChannelCount(), true, false);
+            item.start(first, format);
+
+            decoderExecutor.execute(item::decode);
+            boolean finished = mix(item, format);
+            log.info("Played {} ms of speech{}, {} decoder stalls", item.getPositionMillis(),
+                    finished ? "" : " before it was stopped", item.stalls);
+            return finished;
+        } finally {
+            lastPositionMillis = item.getPositionMillis();
+            current = null;
+            item.stop();
+        }
+    }
+
+    /**
+     * Stop the speech playing, if any, right away. {@link #play(InputStream)} returns false.
+     */
+    public void stop() {
+        Item item = current;
+        if (item != null) {
+            item.stop();
+        }
+    }
+
+    /**
+     * Stop any speech playing and the decoder thread. The player can't be used afterwards.
+     */
+    public void close() {
+        stop();
+        decoderExecutor.shutdownNow();
+    }
+
+    public boolean isPlaying() {
+        return current != null;
+    }
+
+    /**
+     * @return how much of the speech playing, or of the last one, has been played out, in ms.
+     */
+    public long getPositionMillis() {
+        Item item = current;
+        return (item != null) ? item.getPositionMillis() : lastPositionMillis;
+    }
+
+    /**
+     * @return the number of times the mixer was about to run out of speech because the decoder
+     *         hadn't caught up, over all speech played.
+     */
+    public synchronized long getStallCount() {
+        return stallCount;
+    }
+
+    public synchronized String getStats() {
+        return String.format("%d speeches, %d decoder stalls, %.1f ms stalled", itemCount,
+                stallCount, totalStallNanos / 1e6);
+    }
+
+    /**
+     * Mix the decoded speech and wait for it to be played out.
+     */
+    private boolean mix(Item item, AudioFormat format) throws LineUnavailableException {
+        item.input = mixer.add(item::mix, format);
+        if (item.stopped) {
+            // Stopped before it was mixed
+            item.input.remove();
+        }
+        try {
+            item.input.awaitFinished();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            item.stop();
+        }
+
+        synchronized (this) {
+            itemCount++;
+            stallCount += item.stalls;
+            totalStallNanos += item.stallNanos;
+        }
+        return !item.stopped && !item.failed;
+    }
+
+    /**
+     * One speech, from its MP3 stream through the ring it is decoded into.
+     */
+    private class Item implements AudioRing.Source {
+        private final InputStream mp3;
+        private final Bitstream bitstream;
+        private final Decoder decoder = new Decoder();
+        private AudioRing ring;
+        private AudioRing.Cursor cursor;
+        private volatile AudioMixer.Input input;
+
+        // The decoded frame being copied into the ring
+        private short[] pending;
+        private int pendingOffset;
+        private int pendingLength;
+
+        private volatile boolean stopped;
+        private volatile boolean decoded;
+        private volatile boolean failed;
+        // Only changed by the mixer
+        private long stalls;
+        private long stallNanos;
+        private long stallStart;
+
+        Item(InputStream mp3) {
+            this.mp3 = mp3;
+            bitstream = new Bitstream(mp3);
+        }
+
+        void start(SampleBuffer first, AudioFormat format) {
+            int frameSize = format.getFrameSize();
+            int bytes = (int) ((format.getFrameRate() * DECODE_AHEAD_MS) / 1000) * frameSize;
+            ring = new AudioRing(bytes, frameSize);
+            ring.setLossless(true);
+            cursor = ring.openCursor(0);
+            setPending(first);
+        }
+
+        /**
+         * Decode until the end of the stream, staying at most the ring ahead of the writer.
+         */
+        void decode() {
+            try {
+                while (!stopped && (ring.write(this, ring.getCapacity()) > 0)) {
+                    // keep decoding
+                }
+            } finally {
+                ring.endCursors();
+                // Only once everything decoded is in the ring
+                decoded = true;
+                close();
+            }
+        }
+
+        /**
+         * Give the mixer what has been decoded, without waiting for more. Waiting for the first
+         * audio to be decoded isn't a stall.
+         */
+        int mix(byte[] buffer, int offset, int length) {
+            // Read before what's available, so the last frame can't be written in between
+            boolean ended = decoded || stopped;
+            int available = cursor.available();
+            if (available == 0) {
+                if (ended) {
+                    return -1;
+                }
+                if ((cursor.getPosition() > 0) && (stallStart == 0)) {
+                    stallStart = System.nanoTime();
+                    stalls++;
+                }
+                return 0;
+            }
+            if (stallStart != 0) {
+                stallNanos += System.nanoTime() - stallStart;
+                stallStart = 0;
+            }
+            return cursor.read(buffer, offset, Math.min(length, available));
+        }
+
+        /**
+         * Copy the rest of the decoded frame into the ring, decoding the next one first if it's
+         * used up, so each frame reaches the writer as soon as it's decoded.
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (pendingOffset >= pendingLength) {
+                SampleBuffer frame;
+                try {
+                    frame = stopped ? null : decodeFrame();
+                } catch (IOException e) {
+                    log.error("Failed to decode speech", e);
+                    failed = true;
+                    frame = null;
+                }
+                if (frame == null) {
+                    return -1;
+                }
+                setPending(frame);
+            }
+            int samples = Math.min(length / 2, pendingLength - pendingOffset);
+            for (int i = 0; i < samples; i++) {
+                short sample = pending[pendingOffset++];
+                buffer[offset++] = (byte) sample;
+                buffer[offset++] = (byte) (sample >> 8);
+            }
+            return samples * 2;
+        }
+
+        SampleBuffer decodeFrame() throws IOException {
+            try {
+                Header header = bitstream.readFrame();
+                if (header == null) {
+                    return null;
+                }
+                SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                bitstream.closeFrame();
+                return output;
+            } catch (JavaLayerException e) {
+                throw new IOException("Failed to decode MP3", e);
+            }
+        }
+
+        long getPositionMillis() {
+            AudioMixer.Input mixing = input;
+            return (mixing != null) ? mixing.getPlayedMillis() : 0;
+        }
+
+        void stop() {
+            stopped = true;
+            AudioMixer.Input mixing = input;
+            if (mixing != null) {
+                mixing.remove();
+            }
+            if (cursor != null) {
+                cursor.close();
+            } else {
+                close();
+            }
+        }
+
+        private void setPending(SampleBuffer frame) {
+            // The decoder reuses its output buffer, so the frame is consumed before the next
+            pending = frame.getBuffer();
+            pendingOffset = 0;
+            pendingLength = frame.getBufferLength();
+        }
+
+        private void close() {
+            try {
+                bitstream.close();
+            } catch (JavaLayerException e) {
+                log.debug("Failed to close speech bitstream", e);
+            }
+            IOUtils.closeQuietly(mp3);
+        }
+    }
+}
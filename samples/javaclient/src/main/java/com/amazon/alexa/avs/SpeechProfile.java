@@ -8,9 +8,17 @@
  */
 package com.amazon.alexa.avs;
 
+/**
+ * How the user talks to the device, which also decides who ends the recording. With
+ * {@link #CLOSE_TALK} the device does, e.g. when a button is released or speech ends. With the
+ * other profiles AVS detects the end of speech and sends a SpeechRecognizer.StopCapture
+ * directive, so the device keeps streaming until it arrives.
+ */
 public enum SpeechProfile {
 
-    CLOSE_TALK("CLOSE_TALK");
+    CLOSE_TALK("CLOSE_TALK"),
+    NEAR_FIELD("NEAR_FIELD"),
+    FAR_FIELD("FAR_FIELD");
 
     private final String profileName;
 
@@ -18,6 +26,13 @@ public enum SpeechProfile {
         this.profileName = profileName;
     }
 
+    /**
+     * @return whether AVS ends recordings made with this profile.
+     */
+    public boolean isCloudEndpointed() {
+        return this != CLOSE_TALK;
+    }
+
     @Override
     public String toString() {
         return this.profileName;
@@ -10,20 +10,22 @@ package com.amazon.alexa.avs;
 
 import com.amazon.alexa.avs.AVSAudioPlayer.AlexaSpeechListener;
 
-import java.util.Optional;
-import java.util.concurrent.CountDownLatch;
-
 /**
  * This class keeps track of running speech requests and whether the device is listening/speaking to
  * appropriately manage the pause state of the player.
+ * <p>
+ * Output paused by a speech request is resumed once its processing has finished, all of its
+ * directives have been dispatched, and Alexa is neither speaking nor listening. Each event
+ * re-checks those conditions, so no thread is needed to wait for them.
  */
 public class SpeechRequestAudioPlayerPauseController
         implements AlexaSpeechListener, ExpectSpeechListener {
     private final AVSAudioPlayer audioPlayer;
-    private Optional<CountDownLatch> outstandingDirectiveCount = Optional.empty();
-    private Optional<Thread> resumeAudioThread = Optional.empty();
-    private Optional<CountDownLatch> alexaSpeaking = Optional.empty();
-    private Optional<CountDownLatch> alexaListening = Optional.empty();
+    private int outstandingDirectiveCount = 0;
+    private boolean alexaSpeaking = false;
+    private boolean alexaListening = false;
+    // Whether the current speech request has finished processing and is waiting to resume output
+    private boolean resumePending = false;
     boolean speechRequestRunning = false;
 
     public SpeechRequestAudioPlayerPauseController(AVSAudioPlayer audioPlayer) {
@@ -35,45 +37,65 @@ public class SpeechRequestAudioPlayerPauseController
      * Called when the starting a speech request to alexa voice service
      */
     public void startSpeechRequest() {
-        alexaListening = Optional.of(new CountDownLatch(1));
+        synchronized (this) {
+            alexaListening = true;
+        }
         audioPlayer.interruptAllAlexaOutput();
-        resumeAudioThread.ifPresent(t -> t.interrupt());
-        speechRequestRunning = true;
+        synchronized (this) {
+            // A request that hasn't resumed output yet never will, this one takes over
+            resumePending = false;
+            speechRequestRunning = true;
+        }
     }
 
     /**
      * Called when finished Listening
      */
     public void finishedListening() {
-        alexaListening.ifPresent(c -> c.countDown());
-        if (!speechRequestRunning) {
+        boolean resume;
+        synchronized (this) {
+            alexaListening = false;
+            resume = !speechRequestRunning;
+        }
+        if (resume) {
             audioPlayer.resumeAllAlexaOutput();
         }
+        resumeIfFinished();
     }
 
     /**
      * Called each time a directive is dispatched
      */
     public void dispatchDirective() {
-        outstandingDirectiveCount.ifPresent(c -> c.countDown());
+        synchronized (this) {
+            if (outstandingDirectiveCount > 0) {
+                outstandingDirectiveCount--;
+            }
+        }
+        resumeIfFinished();
     }
 
     @Override
-    public void onAlexaSpeechStarted() {
-        alexaSpeaking = Optional.of(new CountDownLatch(1));
+    public synchronized void onAlexaSpeechStarted() {
+        alexaSpeaking = true;
     }
 
     @Override
     public void onAlexaSpeechFinished() {
-        alexaSpeaking.ifPresent(c -> c.countDown());
-        if (!speechRequestRunning) {
+        boolean resume;
+        synchronized (this) {
+            alexaSpeaking = false;
+            resume = !speechRequestRunning;
+        }
+        if (resume) {
             audioPlayer.resumeAllAlexaOutput();
         }
+        resumeIfFinished();
     }
 
     @Override
-    public void onExpectSpeechDirective() {
-        alexaListening = Optional.of(new CountDownLatch(1));
+    public synchronized void onExpectSpeechDirective() {
+        alexaListening = true;
     }
 
     /**
@@ -84,39 +106,22 @@ public class SpeechRequestAudioPlayerPauseController
      *            just finished
      */
     public void speechRequestProcessingFinished(int directiveCount) {
-        resumeAudioThread.ifPresent(t -> t.interrupt());
-        outstandingDirectiveCount = Optional.of(new CountDownLatch(directiveCount));
-        resumeAudioThread = Optional.of(new Thread() {
-
-            boolean isInterrupted = false;
-
-            @Override
-            public void run() {
-                outstandingDirectiveCount.ifPresent(c -> awaitOnLatch(c));
-                if (alexaListening.isPresent() || alexaSpeaking.isPresent()) {
-                    alexaSpeaking.ifPresent(c -> awaitOnLatch(c));
-                    alexaListening.ifPresent(c -> awaitOnLatch(c));
-                }
-                if (!isInterrupted) {
-                    speechRequestRunning = false;
-                    audioPlayer.resumeAllAlexaOutput();
-                }
-
-            }
+        synchronized (this) {
+            outstandingDirectiveCount = directiveCount;
+            resumePending = true;
+        }
+        resumeIfFinished();
+    }
 
-            private void awaitOnLatch(CountDownLatch latch) {
-                try {
-                    latch.await();
-                } catch (InterruptedException e) {
-                    // If another speech request is kicked off while we're processing the
-                    // current request we expect this thread to be interrupted
-                    isInterrupted = true;
-                }
+    private void resumeIfFinished() {
+        synchronized (this) {
+            if (!resumePending || (outstandingDirectiveCount > 0) || alexaSpeaking
+                    || alexaListening) {
+                return;
             }
-
-        });
-        resumeAudioThread.ifPresent(t -> t.start());
-
+            resumePending = false;
+            speechRequestRunning = false;
+        }
+        audioPlayer.resumeAllAlexaOutput();
     }
-
 }
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds speech in 16 bit mono PCM, one fixed size frame at a time.
+ * <p>
+ * Each frame's mean energy and zero crossings are computed with integer math. A frame is speech
+ * like when its energy is well above the noise floor, which follows the quietest recent frames,
+ * and it doesn't cross zero so often that it looks like hiss. Speech starts after a few speech
+ * like frames in a row, and ends after the hangover of frames that aren't. Frames can arrive split
+ * across calls, and nothing is allocated while processing. Not thread safe, it is meant to be fed
+ * by one thread.
+ */
+public class VoiceActivityDetector {
+    // Speech like frames needed in a row for speech to start
+    private static final int ONSET_FRAMES = 3;
+    // How far above the noise floor a frame's energy has to be, 8x is about 9 dB
+    private static final int SPEECH_TO_NOISE_RATIO = 8;
+    // Energies are mean squares, so this is an RMS of about 60 out of 32768
+    private static final long MIN_SPEECH_ENERGY = 3600;
+    private static final long MIN_NOISE_FLOOR = 100;
+    // Outside speech the noise floor rises by 1/64th of the difference each frame
+    private static final int NOISE_FLOOR_RISE_SHIFT = 6;
+    private static final int NOISE_FLOOR_SPEECH_RISE_SHIFT = 10;
+    // Frames crossing zero more than this fraction of their samples are hiss, unless much louder
+    private static final int MAX_SPEECH_ZERO_CROSSING_DIVISOR = 2;
+
+    public enum State {
+        SILENCE,
+        SPEECH
+    }
+
+    private final int frameSamples;
+    private volatile int hangoverFrames;
+    private final List<VoiceActivityListener> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.SILENCE;
+    private long noiseFloor = -1;
+    private long frameIndex;
+    private int speechFrames;
+    private int silenceFrames;
+
+    // The frame in progress
+    private int samplesInFrame;
+    private long energySum;
+    private int zeroCrossings;
+    private boolean lastNegative;
+    private long lastFrameEnergy;
+
+    // The level of the frames since it was last taken
+    private long levelEnergySum;
+    private int levelFrames;
+
+    /**
+     * @param frameSamples
+     *            the number of samples in a frame, e.g. 160 for 10 ms at 16 kHz.
+     * @param hangoverFrames
+     *            the number of frames without speech that end it.
+     */
+    public VoiceActivityDetector(int frameSamples, int hangoverFrames) {
+        this.frameSamples = frameSamples;
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    public int getFrameSamples() {
+        return frameSamples;
+    }
+
+    public void setHangoverFrames(int hangoverFrames) {
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    public void addListener(VoiceActivityListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(VoiceActivityListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start counting samples from zero again. The noise floor is kept.
+     *
+     * @param assumeSpeech
+     *            start in {@link State#SPEECH}, so that silence from the start ends it after the
+     *            hangover, as when the user has been prompted to speak.
+     */
+    public void reset(boolean assumeSpeech) {
+        state = assumeSpeech ? State.SPEECH : State.SILENCE;
+        frameIndex = 0;
+        speechFrames = 0;
+        silenceFrames = 0;
+        samplesInFrame = 0;
+        energySum = 0;
+        zeroCrossings = 0;
+        levelEnergySum = 0;
+        levelFrames = 0;
+    }
+
+    /**
+     * Process little endian 16 bit samples.
+     */
+    public void process(byte[] data, int offset, int length) {
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i += 2) {
+            addSample((short) ((data[i] & 0xff) | (data[i + 1] << 8)));
+        }
+    }
+
+    public void process(short[] samples, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            addSample(samples[i]);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isSpeech() {
+        return state == State.SPEECH;
+    }
+
+    /**
+     * @return the mean energy of the quietest recent frames.
+     */
+    public long getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    public long getLastFrameEnergy() {
+        return lastFrameEnergy;
+    }
+
+    /**
+     * @return the number of frames processed since the last reset.
+     */
+    public long getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * @return the RMS level of the frames processed since this was last called, scaled like
+     *         {@link RecordingRMSListener} levels from 1 at silence to about 100 at half of full
+     *         scale, or 0 if no frame has been completed since.
+     */
+    public int takeLevel() {
+        if (levelFrames == 0) {
+            return 0;
+        }
+        double rms = Math.sqrt((double) levelEnergySum / levelFrames);
+        levelEnergySum = 0;
+        levelFrames = 0;
+        return (int) (((100 * rms) / (Short.MAX_VALUE / 2.0)) + 1);
+    }
+
+    private void addSample(int sample) {
+        energySum += sample * sample;
+        boolean negative = sample < 0;
+        if (negative != lastNegative) {
+            zeroCrossings++;
+            lastNegative = negative;
+        }
+        if (++samplesInFrame == frameSamples) {
+            endFrame();
+        }
+    }
+
+    private void endFrame() {
+        long energy = energySum / frameSamples;
+        int crossings = zeroCrossings;
+        samplesInFrame = 0;
+        energySum = 0;
+        zeroCrossings = 0;
+        lastFrameEnergy = energy;
+        levelEnergySum += energy;
+        levelFrames++;
+
+        if (noiseFloor < 0) {
+            noiseFloor = Math.max(energy, MIN_NOISE_FLOOR);
+        }
+        long threshold = Math.max(noiseFloor * SPEECH_TO_NOISE_RATIO, MIN_SPEECH_ENERGY);
+        boolean speechLike = (energy > threshold)
+                && ((crossings <= (frameSamples / MAX_SPEECH_ZERO_CROSSING_DIVISOR))
+                        || (energy > (threshold * SPEECH_TO_NOISE_RATIO)));
+
+        if (energy < noiseFloor) {
+            noiseFloor = Math.max(energy, MIN_NOISE_FLOOR);
+        } else if (!speechLike) {
+            noiseFloor += (energy - noiseFloor) >> NOISE_FLOOR_RISE_SHIFT;
+        } else {
+            // Much slower, so steady loud noise is eventually taken as the floor, not speech
+            noiseFloor += (energy - noiseFloor) >> NOISE_FLOOR_SPEECH_RISE_SHIFT;
+        }
+
+        if (speechLike) {
+            speechFrames++;
+            silenceFrames = 0;
+        } else {
+            silenceFrames++;
+            speechFrames = 0;
+        }
+
+        if ((state == State.SILENCE) && (speechFrames >= ONSET_FRAMES)) {
+            state = State.SPEECH;
+            long sampleIndex = (frameIndex - ONSET_FRAMES + 1) * frameSamples;
+            for (VoiceActivityListener listener : listeners) {
+                listener.onSpeechStarted(sampleIndex);
+            }
+        } else if ((state == State.SPEECH) && (silenceFrames >= hangoverFrames)) {
+            state = State.SILENCE;
+            long sampleIndex = (frameIndex - silenceFrames + 1) * frameSamples;
+            for (VoiceActivityListener listener : listeners) {
+                listener.onSpeechEnded(sampleIndex);
+            }
+        }
+        frameIndex++;
+    }
+}
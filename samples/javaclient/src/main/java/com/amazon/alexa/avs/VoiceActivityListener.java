@@ -0,0 +1,27 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+/**
+ * Receives the speech boundaries found by a {@link VoiceActivityDetector}. Called on the thread
+ * feeding the detector, usually the capture thread, so implementations must return quickly.
+ */
+public interface VoiceActivityListener {
+    /**
+     * @param sampleIndex
+     *            the first sample of the speech, counted from the last reset of the detector.
+     */
+    void onSpeechStarted(long sampleIndex);
+
+    /**
+     * @param sampleIndex
+     *            the first sample of the silence that ended the speech.
+     */
+    void onSpeechEnded(long sampleIndex);
+}
@@ -13,11 +13,15 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.ObjectReader;
 import org.codehaus.jackson.map.ObjectWriter;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class ObjectMapperFactory {
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
             .configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     private static final ObjectWriter OBJECT_WRITER = OBJECT_MAPPER.writer();
     private static final ObjectReader OBJECT_READER = OBJECT_MAPPER.reader();
+    private static final Map<Class<?>, ObjectReader> TYPED_READERS = new ConcurrentHashMap<>();
 
     private ObjectMapperFactory() {
     }
@@ -38,7 +42,8 @@ public class ObjectMapperFactory {
      * @return
      */
     public static ObjectReader getObjectReader(Class<?> clazz) {
-        return OBJECT_READER.withType(clazz);
+        // Readers are immutable, so one per type is enough
+        return TYPED_READERS.computeIfAbsent(clazz, OBJECT_READER::withType);
     }
 
     public static ObjectWriter getObjectWriter() {
@@ -16,7 +16,7 @@ import com.amazon.alexa.avs.exception.AVSException;
 import com.amazon.alexa.avs.exception.AVSJsonProcessingException;
 import com.amazon.alexa.avs.exception.AlexaSystemException;
 import com.amazon.alexa.avs.http.MultipartParser.MultipartParserConsumer;
-import com.amazon.alexa.avs.http.jetty.InputStreamResponseListener;
+import com.amazon.alexa.avs.http.jetty.ChunkedResponseListener;
 import com.amazon.alexa.avs.http.jetty.PingSendingHttpClientTransportOverHTTP2;
 import com.amazon.alexa.avs.http.jetty.PingSendingHttpClientTransportOverHTTP2.ConnectionListener;
 import com.amazon.alexa.avs.message.Message;
@@ -46,6 +46,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -54,6 +55,8 @@ import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
@@ -63,10 +66,10 @@ public class AVSClient implements ConnectionListener {
     private static final int REQUEST_TIMEOUT_IN_S = 10;
     private static final int REQUEST_ATTEMPTS = 3;
     private static final long REQUEST_RETRY_DELAY_MS = 1000;
+    private static final int AUDIO_REPLAY_BUFFER_SIZE_IN_SECONDS = 10;
 
     private static final String EVENTS_ENDPOINT = "/v20160207/events";
     private static final String DIRECTIVES_ENDPOINT = "/v20160207/directives";
-    private static final BlockingQueue<AVSRequest> requestQueue = new LinkedBlockingDeque<>();
 
     static final String METADATA_NAME = "metadata";
     static final String AUDIO_NAME = "audio";
@@ -97,11 +100,14 @@ public class AVSClient implements ConnectionListener {
     private SslContextFactory sslContextFactory;
     private String accessToken = "";
     private DownchannelRequestThread downchannelThread;
-    private RequestThread requestThread;
-    private MultipartParser requestResponseParser;
+    private final ConcurrentMap<String, RequestLane> requestLanes = new ConcurrentHashMap<>();
+    private volatile boolean requestLanesStarted = false;
+    private MultipartParserConsumer multipartParserConsumer;
     private MultipartParser downchannelParser;
     private HTTP2Client http2Client;
     private ParsingFailedHandler parsingFailedHandler;
+    private final AudioReplayBuffer audioReplayBuffer =
+            new AudioReplayBuffer(AudioInputFormat.LPCM, AUDIO_REPLAY_BUFFER_SIZE_IN_SECONDS);
 
     /**
      * Constructor that takes a host, a {@link DirectiveQueue}, and a {@link SslContextFactory} .
@@ -127,14 +133,12 @@ public class AVSClient implements ConnectionListener {
         this.host = host;
         this.sslContextFactory = sslContextFactory;
 
-        requestResponseParser = new MultipartParser(multipartParserConsumer);
+        this.multipartParserConsumer = multipartParserConsumer;
         downchannelParser = new MultipartParser(multipartParserConsumer);
 
         this.parsingFailedHandler = parsingFailedHandler;
 
         createNewHttpClient();
-
-        requestThread = new RequestThread(requestQueue);
     }
 
     private void createNewHttpClient() throws Exception {
@@ -185,7 +189,8 @@ public class AVSClient implements ConnectionListener {
         httpClient.start();
     }
 
-    private Request createRequest(Resource resource, ContentProvider content) throws Exception {
+    private synchronized Request createRequest(Resource resource, ContentProvider content)
+            throws Exception {
         if (!httpClient.isStarted()) {
             log.error("HttpClient is stopped when it should be started");
             createNewHttpClient();
@@ -208,9 +213,21 @@ public class AVSClient implements ConnectionListener {
      */
     private void doRequest(AVSRequest avsRequest) {
         Callable<Void> task = new Callable<Void>() {
+            private boolean retry = false;
+
             @Override
             public Void call() throws Exception {
-                Request request = createRequest(avsRequest.getResource(), avsRequest.getContentProvider());
+                ContentProvider content = avsRequest.getContentProvider();
+                if (retry && (content instanceof ReplayableContentProvider)
+                        && !((ReplayableContentProvider) content).isReplayable()) {
+                    // Not a RequestException, so the retry policy gives up right away
+                    throw new ContentNotReplayableException(
+                            "Request content outgrew the replay buffer of "
+                                    + audioReplayBuffer.getCapacity()
+                                    + " bytes and cannot be retried");
+                }
+                retry = true;
+                Request request = createRequest(avsRequest.getResource(), content);
                 doRequestActual(request, avsRequest.getMultipartParser());
                 return null;
             }
@@ -225,6 +242,9 @@ public class AVSClient implements ConnectionListener {
         } catch (Exception e) {
             log.error("There was a problem with the request.", e);
             avsRequest.getRequestListener().ifPresent(l -> l.onRequestError(e));
+        } finally {
+            // A failed request may never have read its source to the end
+            avsRequest.getSource().ifPresent(IOUtils::closeQuietly);
         }
     }
 
@@ -239,31 +259,39 @@ public class AVSClient implements ConnectionListener {
      *             is thrown when we get a non-2xx HTTP status code.
      * @throws IOException
      *             is thrown when parsing the multipart stream, and reading from the
-     *             {@link PipedChannelResponseListener}.
+     *             {@link ChunkedResponseListener}.
      */
     private void doRequestActual(Request request, MultipartParser multipartParser)
             throws AVSException, IOException {
         request.header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
 
-        InputStreamResponseListener responseListener = new InputStreamResponseListener();
+        ChunkedResponseListener responseListener = new ChunkedResponseListener();
         Response response;
         InputStream inputStream;
 
         try {
-            // We have a request queue that maintains correct sequencing of events to appease the
-            // server needing no events to happen in parallel. However, Downchannel requests don't
-            // happen on that queue, they happen separately. By synchronizing here we can ensure
-            // that no requests on the request queue will happen in parallel with the downchannel
-            // requests.
-            synchronized (this) {
-                request.send(responseListener);
-                response = responseListener.get(REQUEST_TIMEOUT_IN_S, TimeUnit.SECONDS);
-            }
+            // Every request is its own HTTP/2 stream on the shared connection, so the downchannel
+            // and the request lanes do not wait on each other's response headers. Ordering is
+            // maintained per lane by the RequestLane threads.
+            request.send(responseListener);
+            response = responseListener.get(REQUEST_TIMEOUT_IN_S, TimeUnit.SECONDS);
             inputStream = responseListener.getInputStream();
         } catch (Exception e) {
+            // Give back any content received so far so it doesn't hold the flow control window
+            responseListener.close();
             throw new RequestException(e);
         }
 
+        // Closing the stream releases any content the parser didn't consume back to Jetty
+        try {
+            handleResponse(response, inputStream, multipartParser);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private void handleResponse(Response response, InputStream inputStream,
+            MultipartParser multipartParser) throws AVSException, IOException {
         int statusCode = response.getStatus();
         log.info("Response code: {}", statusCode);
         log.info("Response headers: {}", response.getHeaders());
@@ -342,8 +370,7 @@ public class AVSClient implements ConnectionListener {
         MultipartContentProvider multipartContent = new MultipartContentProvider();
         multipartContent.addPart(METADATA_NAME, createMetadataContent(body));
 
-        enqueueRequest(
-                new AVSRequest(Resource.EVENTS, multipartContent, new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS), requestResponseParser, listener));
+        enqueueRequest(body, multipartContent, listener, null);
     }
 
     /**
@@ -362,14 +389,14 @@ public class AVSClient implements ConnectionListener {
         AudioInputStreamContentProvider audioContent =
                 new AudioInputStreamContentProvider(audiotype, inputStream);
 
-        CachingContentProvider cachableContent = new CachingContentProvider(audioContent);
+        ReplayBufferContentProvider replayableContent =
+                new ReplayBufferContentProvider(audioContent, audioReplayBuffer);
 
         MultipartContentProvider multipartContent = new MultipartContentProvider();
         multipartContent.addPart(METADATA_NAME, createMetadataContent(body));
-        multipartContent.addPart(AUDIO_NAME, cachableContent);
+        multipartContent.addPart(AUDIO_NAME, replayableContent);
 
-        enqueueRequest(
-                new AVSRequest(Resource.EVENTS, multipartContent, new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS), requestResponseParser, listener));
+        enqueueRequest(body, multipartContent, listener, inputStream);
     }
 
     private StringContentProvider createMetadataContent(RequestBody body)
@@ -383,9 +410,40 @@ public class AVSClient implements ConnectionListener {
         return metadataContent;
     }
 
-    private void enqueueRequest(AVSRequest request) {
-        if (!requestQueue.offer(request)) {
+    /**
+     * Enqueue an event on the lane for its namespace. Events within a namespace keep the order in
+     * which they were sent (e.g. PlaybackStarted before PlaybackFinished, SpeechStarted before
+     * SpeechFinished), while events in different namespaces are sent concurrently, so a slow
+     * Recognize response doesn't hold up progress reports or alert events.
+     */
+    private void enqueueRequest(RequestBody body, ContentProvider content,
+            RequestListener listener, Closeable source) {
+        RequestLane lane = getRequestLane(body.getEvent().getNamespace());
+        AVSRequest request = new AVSRequest(Resource.EVENTS, content,
+                new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS), lane.parser,
+                listener);
+        request.setSource(source);
+        if (!lane.queue.offer(request)) {
             log.error("Failed to enqueue request");
+            IOUtils.closeQuietly(source);
+        }
+    }
+
+    private RequestLane getRequestLane(String name) {
+        RequestLane lane = requestLanes.get(name);
+        if (lane != null) {
+            return lane;
+        }
+        // Created and started under the same lock as startRequestThread, so no lane is started
+        // by both
+        synchronized (this) {
+            return requestLanes.computeIfAbsent(name, key -> {
+                RequestLane newLane = new RequestLane(key);
+                if (requestLanesStarted) {
+                    newLane.start();
+                }
+                return newLane;
+            });
         }
     }
 
@@ -417,9 +475,12 @@ public class AVSClient implements ConnectionListener {
         startDownchannelThread();
     }
 
-    void startRequestThread() {
-        if (!requestThread.isAlive()) {
-            requestThread.start();
+    synchronized void startRequestThread() {
+        if (!requestLanesStarted) {
+            requestLanesStarted = true;
+            for (RequestLane lane : requestLanes.values()) {
+                lane.start();
+            }
         }
     }
 
@@ -475,12 +536,17 @@ public class AVSClient implements ConnectionListener {
         }
     }
 
-    private class RequestThread extends Thread {
-        private BlockingQueue<AVSRequest> queue;
+    /**
+     * A serial lane of event requests. Each lane has its own queue and {@link MultipartParser}, so
+     * requests on one lane are sent one after the other while different lanes share the HTTP/2
+     * connection as concurrent streams.
+     */
+    private class RequestLane extends Thread {
+        private final BlockingQueue<AVSRequest> queue = new LinkedBlockingDeque<>();
+        private final MultipartParser parser = new MultipartParser(multipartParserConsumer);
 
-        public RequestThread(BlockingQueue<AVSRequest> queue) {
-            this.queue = queue;
-            setName(this.getClass().getSimpleName());
+        public RequestLane(String name) {
+            setName(this.getClass().getSimpleName() + "-" + name);
         }
 
         @Override
@@ -488,7 +554,11 @@ public class AVSClient implements ConnectionListener {
             while (true) {
                 try {
                     AVSRequest request = queue.take();
+                    long dequeuedTimeMs = System.currentTimeMillis();
                     doRequest(request);
+                    log.debug("{}: waited {} ms in queue, completed in {} ms", getName(),
+                            dequeuedTimeMs - request.getCreatedTimeMillis(),
+                            System.currentTimeMillis() - dequeuedTimeMs);
                     request.getRequestListener().ifPresent(l -> l.onRequestSuccess());
                 } catch (InterruptedException e) {
                     log.error("Exception in the request thread", e);
@@ -505,6 +575,14 @@ public class AVSClient implements ConnectionListener {
         }
     }
 
+    public static class ContentNotReplayableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ContentNotReplayableException(String message) {
+            super(message);
+        }
+    }
+
     public static class MalformedResponseException extends RuntimeException {
         private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Carries the body of a multipart attachment from the {@link MultipartParser} to its consumer
+ * while the part is still arriving.
+ * <p>
+ * The parser writes to the pipe and the consumer reads from {@link #getInputStream()}. Once the
+ * consumer has started reading, the parser blocks while more than the high water mark is buffered,
+ * which holds back the HTTP/2 stream. The backpressure is bounded: if the consumer makes no
+ * progress for the stall timeout, the parser stops waiting and buffers the rest, so an abandoned
+ * attachment can never stall the stream it arrived on.
+ * <p>
+ * Content is copied once, into a ring buffer of the high water mark that only grows while the
+ * backpressure has given up, so writing a DATA frame doesn't allocate.
+ */
+class AttachmentPipe extends OutputStream {
+    private final int highWaterMark;
+    private final long stallTimeoutMs;
+    private final Input input = new Input();
+    // Allocated on the first write
+    private byte[] ring;
+    private int readIndex;
+    private int buffered;
+    private long lastReadTimeMs;
+    private boolean readerAttached;
+    private boolean readerClosed;
+    private boolean writerClosed;
+    private IOException failure;
+
+    AttachmentPipe(int highWaterMark, long stallTimeoutMs) {
+        this.highWaterMark = highWaterMark;
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (!beginWrite(1)) {
+            return;
+        }
+        ring[(readIndex + buffered) % ring.length] = (byte) b;
+        endWrite(1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (!beginWrite(len)) {
+            return;
+        }
+        int writeIndex = (readIndex + buffered) % ring.length;
+        int first = Math.min(len, ring.length - writeIndex);
+        System.arraycopy(b, off, ring, writeIndex, first);
+        System.arraycopy(b, off + first, ring, 0, len - first);
+        endWrite(len);
+    }
+
+    /**
+     * Like {@link #write(byte[], int, int)}, for a buffer that may not be backed by an array.
+     * The buffer's position is moved past what was written.
+     */
+    synchronized void write(ByteBuffer data) throws IOException {
+        int len = data.remaining();
+        if (!beginWrite(len)) {
+            data.position(data.limit());
+            return;
+        }
+        int writeIndex = (readIndex + buffered) % ring.length;
+        int first = Math.min(len, ring.length - writeIndex);
+        data.get(ring, writeIndex, first);
+        data.get(ring, 0, len - first);
+        endWrite(len);
+    }
+
+    /**
+     * @return whether the length should be copied into the ring, which then has room for it.
+     */
+    private boolean beginWrite(int len) throws IOException {
+        if (writerClosed) {
+            throw new IOException("Attachment pipe is closed");
+        }
+        if (readerClosed || (len == 0)) {
+            return false;
+        }
+        ensureCapacity(buffered + len);
+        return true;
+    }
+
+    /**
+     * Hand what was copied to the reader, then hold the writer back while too much is buffered.
+     */
+    private void endWrite(int len) throws IOException {
+        buffered += len;
+        notifyAll();
+
+        try {
+            while (readerAttached && !readerClosed && (buffered >= highWaterMark)) {
+                long stalledMs = System.currentTimeMillis() - lastReadTimeMs;
+                if (stalledMs >= stallTimeoutMs) {
+                    break;
+                }
+                wait(stallTimeoutMs - stalledMs);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Grow the ring, unwrapping its content to the start, if it can't hold the given length.
+     */
+    private void ensureCapacity(int length) {
+        if (ring == null) {
+            ring = new byte[Math.max(highWaterMark, length)];
+            return;
+        }
+        if (length <= ring.length) {
+            return;
+        }
+        byte[] grown = new byte[Math.max(ring.length * 2, length)];
+        int first = Math.min(buffered, ring.length - readIndex);
+        System.arraycopy(ring, readIndex, grown, 0, first);
+        System.arraycopy(ring, 0, grown, first, buffered - first);
+        ring = grown;
+        readIndex = 0;
+    }
+
+    /**
+     * Signal the end of the attachment.
+     */
+    @Override
+    public synchronized void close() {
+        writerClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Signal that the attachment could not be read to the end.
+     */
+    synchronized void fail(IOException cause) {
+        failure = cause;
+        writerClosed = true;
+        notifyAll();
+    }
+
+    private class Input extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return (read == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if ((off < 0) || (len < 0) || (len > (b.length - off))) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+
+            synchronized (AttachmentPipe.this) {
+                if (readerClosed) {
+                    throw new IOException("Attachment stream is closed");
+                }
+                readerAttached = true;
+                try {
+                    while ((buffered == 0) && !writerClosed) {
+                        AttachmentPipe.this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+
+                if (buffered == 0) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return -1;
+                }
+
+                int count = Math.min(len, buffered);
+                int first = Math.min(count, ring.length - readIndex);
+                System.arraycopy(ring, readIndex, b, off, first);
+                System.arraycopy(ring, 0, b, off + first, count - first);
+                readIndex = (readIndex + count) % ring.length;
+                buffered -= count;
+                lastReadTimeMs = System.currentTimeMillis();
+                AttachmentPipe.this.notifyAll();
+                return count;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (AttachmentPipe.this) {
+                return buffered;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (AttachmentPipe.this) {
+                readerClosed = true;
+                ring = null;
+                readIndex = 0;
+                buffered = 0;
+                AttachmentPipe.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import com.amazon.alexa.avs.AudioInputFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-capacity, preallocated off-heap buffer that records the audio of a single utterance as
+ * it is uploaded, so that a retried request can replay it. The buffer is shared by all uploads of
+ * an {@link AVSClient} and is claimed by one {@link ReplayBufferContentProvider} at a time.
+ */
+public class AudioReplayBuffer {
+    private final ByteBuffer buffer;
+    private Object owner;
+
+    public AudioReplayBuffer(AudioInputFormat audioFormat, int capacityInSeconds) {
+        this(audioFormat.getChunkSizeBytes() * (1000 / audioFormat.getChunkSizeMs())
+                * capacityInSeconds);
+    }
+
+    public AudioReplayBuffer(int capacityInBytes) {
+        buffer = ByteBuffer.allocateDirect(capacityInBytes);
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Discard any recorded audio and hand the buffer to a new owner.
+     */
+    synchronized void claim(Object newOwner) {
+        buffer.clear();
+        owner = newOwner;
+    }
+
+    synchronized boolean isOwnedBy(Object candidate) {
+        return owner == candidate;
+    }
+
+    /**
+     * Append the remaining bytes of the given chunk without changing its position.
+     *
+     * @return false if the chunk doesn't fit, in which case nothing is recorded.
+     */
+    synchronized boolean record(Object recorder, ByteBuffer chunk) {
+        if ((owner != recorder) || (chunk.remaining() > buffer.remaining())) {
+            return false;
+        }
+        int position = chunk.position();
+        buffer.put(chunk);
+        chunk.position(position);
+        return true;
+    }
+
+    /**
+     * @return a read-only view of everything recorded so far.
+     */
+    synchronized ByteBuffer recorded() {
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.flip();
+        return view;
+    }
+}
@@ -13,11 +13,11 @@ import com.amazon.alexa.avs.exception.AVSJsonProcessingException;
 import com.amazon.alexa.avs.message.Message;
 
 import org.codehaus.jackson.JsonProcessingException;
-import org.codehaus.jackson.map.ObjectReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class MessageParser {
     private static final Logger log = LoggerFactory.getLogger(MessageParser.class);
@@ -35,17 +35,30 @@ public class MessageParser {
 
     protected <T> T parse(byte[] bytes, Class<T> clazz) throws IOException {
         try {
-            ObjectReader reader = ObjectMapperFactory.getObjectReader();
-            Object logBody = reader.withType(Object.class).readValue(bytes);
-            log.info("Response metadata: \n{}", ObjectMapperFactory
-                    .getObjectWriter()
-                    .withDefaultPrettyPrinter()
-                    .writeValueAsString(logBody));
-            return reader.withType(clazz).readValue(bytes);
+            T message = ObjectMapperFactory.getObjectReader(clazz).readValue(bytes);
+            log.info("Response metadata: {}", new JsonText(bytes));
+            return message;
         } catch (JsonProcessingException e) {
             String unparseable = new String(bytes, "UTF-8");
             throw new AVSJsonProcessingException(
                     String.format("Failed to parse a %1$s", clazz.getSimpleName()), e, unparseable);
         }
     }
+
+    /**
+     * Decodes the JSON for the log only if it is actually logged. It is logged as received rather
+     * than pretty printed, which would mean parsing every message a second time.
+     */
+    private static class JsonText {
+        private final byte[] bytes;
+
+        JsonText(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
 }
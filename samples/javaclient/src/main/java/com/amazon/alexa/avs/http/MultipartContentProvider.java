@@ -22,7 +22,7 @@ import java.util.stream.Stream;
  * A {@link ContentProvider} that formats other {@link ContentProvider}s to conform to RFC 2388
  * [https://www.ietf.org/rfc/rfc2388.txt] on multipart/form-data.
  */
-public class MultipartContentProvider implements ContentProvider.Typed {
+public class MultipartContentProvider implements ReplayableContentProvider, ContentProvider.Typed {
     static final String BOUNDARY = "__BOUNDARY__";
     static final String NEWLINE = "\r\n";
     static final String TWO_DASHES = "--";
@@ -83,6 +83,17 @@ public class MultipartContentProvider implements ContentProvider.Typed {
         return contentType;
     }
 
+    @Override
+    public boolean isReplayable() {
+        for (PartContentProvider part : parts) {
+            if ((part.contentProvider instanceof ReplayableContentProvider)
+                    && !((ReplayableContentProvider) part.contentProvider).isReplayable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static class PartContentProvider implements ContentProvider {
         private final ContentProvider contentProvider;
         private final String contentType;
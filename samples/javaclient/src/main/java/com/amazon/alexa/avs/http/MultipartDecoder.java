@@ -0,0 +1,403 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import org.apache.commons.fileupload.MultipartStream.MalformedStreamException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An incremental multipart decoder that works directly on the {@link ByteBuffer}s a response
+ * arrives in.
+ * <p>
+ * Content is pushed in with {@link #feed(ByteBuffer)} in chunks of any size, and the parts are
+ * reported to a {@link PartHandler} as they are found. Part bodies are handed out as slices of the
+ * fed buffers, so they are never copied, except for the few bytes at the end of a chunk that could
+ * be the start of a boundary split across two chunks. The boundary is searched for with a
+ * Boyer-Moore-Horspool skip table, and only the Content-Type and Content-ID headers are turned
+ * into Strings.
+ * <p>
+ * A decoder is not thread safe, and can be reused for another stream after {@link #reset(String)}.
+ */
+public class MultipartDecoder {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+    private static final byte[] CONTENT_TYPE = HttpHeaders.CONTENT_TYPE.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_ID = HttpHeaders.CONTENT_ID.getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_HEADER_SIZE = 10 * 1024;
+
+    private enum State {
+        PREAMBLE,
+        DELIMITER_DASH,
+        DELIMITER_END,
+        DELIMITER_LF,
+        HEADERS,
+        BODY,
+        EPILOGUE
+    }
+
+    private final PartHandler handler;
+    private final byte[] headerBuffer = new byte[MAX_HEADER_SIZE];
+    private final int[] skipTable = new int[256];
+    private byte[] delimiter;
+    private byte[] carry;
+    private int carryLength;
+    private int headerLength;
+    private State state;
+
+    public MultipartDecoder(PartHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Get ready to decode a new stream with the given boundary.
+     */
+    public void reset(String boundary) {
+        // Every delimiter, including the first, is preceded by a CRLF. The first one may also be at
+        // the very start of the stream, which is handled by starting out with a CRLF carried over.
+        byte[] boundaryBytes = boundary.getBytes(StandardCharsets.US_ASCII);
+        delimiter = new byte[boundaryBytes.length + 4];
+        delimiter[0] = CR;
+        delimiter[1] = LF;
+        delimiter[2] = DASH;
+        delimiter[3] = DASH;
+        System.arraycopy(boundaryBytes, 0, delimiter, 4, boundaryBytes.length);
+
+        int m = delimiter.length;
+        Arrays.fill(skipTable, m);
+        for (int i = 0; i < (m - 1); i++) {
+            skipTable[delimiter[i] & 0xFF] = m - 1 - i;
+        }
+
+        carry = new byte[m];
+        carry[0] = CR;
+        carry[1] = LF;
+        carryLength = 2;
+        headerLength = 0;
+        state = State.PREAMBLE;
+    }
+
+    /**
+     * @return whether the close delimiter has been read.
+     */
+    public boolean isComplete() {
+        return state == State.EPILOGUE;
+    }
+
+    /**
+     * Decode the remaining content of the given buffer, which is consumed entirely.
+     *
+     * @throws IOException
+     *             if the content is not a valid multipart stream, or the handler failed.
+     */
+    public void feed(ByteBuffer chunk) throws IOException {
+        while (chunk.hasRemaining()) {
+            switch (state) {
+                case PREAMBLE:
+                case BODY:
+                    scanForDelimiter(chunk);
+                    break;
+                case DELIMITER_DASH:
+                    if (chunk.get() != DASH) {
+                        throw new MalformedStreamException("Unexpected characters after boundary");
+                    }
+                    state = State.EPILOGUE;
+                    break;
+                case DELIMITER_END:
+                    byte b = chunk.get();
+                    if (b == DASH) {
+                        state = State.DELIMITER_DASH;
+                    } else if (b == CR) {
+                        state = State.DELIMITER_LF;
+                    } else if ((b != ' ') && (b != '\t')) {
+                        // Anything but transport padding
+                        throw new MalformedStreamException("Unexpected characters after boundary");
+                    }
+                    break;
+                case DELIMITER_LF:
+                    if (chunk.get() != LF) {
+                        throw new MalformedStreamException("Unexpected characters after boundary");
+                    }
+                    // Keep the CRLF, so the end of the headers is always a blank line, even when
+                    // there are none
+                    headerBuffer[0] = CR;
+                    headerBuffer[1] = LF;
+                    headerLength = 2;
+                    state = State.HEADERS;
+                    break;
+                case HEADERS:
+                    readHeaders(chunk);
+                    break;
+                case EPILOGUE:
+                    chunk.position(chunk.limit());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Check that the stream ended where it is allowed to.
+     *
+     * @throws MalformedStreamException
+     *             if the stream ended before the close delimiter.
+     */
+    public void finish() throws MalformedStreamException {
+        if (state != State.EPILOGUE) {
+            throw new MalformedStreamException("Stream ended unexpectedly");
+        }
+    }
+
+    private void readHeaders(ByteBuffer chunk) throws IOException {
+        while (chunk.hasRemaining()) {
+            if (headerLength == headerBuffer.length) {
+                throw new MalformedStreamException(
+                        "Header section has more than " + MAX_HEADER_SIZE + " bytes");
+            }
+            headerBuffer[headerLength++] = chunk.get();
+            if ((headerLength >= 4) && (headerBuffer[headerLength - 1] == LF)
+                    && (headerBuffer[headerLength - 2] == CR)
+                    && (headerBuffer[headerLength - 3] == LF)
+                    && (headerBuffer[headerLength - 4] == CR)) {
+                handler.onPartBegin(parseHeaders());
+                state = State.BODY;
+                return;
+            }
+        }
+    }
+
+    private PartHeaders parseHeaders() {
+        String contentType = null;
+        String contentId = null;
+
+        // The buffer starts with the CRLF ending the delimiter line, and ends with a blank line
+        int lineStart = 2;
+        while (lineStart < (headerLength - 2)) {
+            int lineEnd = lineStart;
+            while (!((headerBuffer[lineEnd] == CR) && (headerBuffer[lineEnd + 1] == LF))) {
+                lineEnd++;
+            }
+
+            int colon = indexOf(headerBuffer, (byte) ':', lineStart, lineEnd);
+            if (colon != -1) {
+                int nameEnd = trimEnd(lineStart, colon);
+                if (equalsIgnoreCase(CONTENT_TYPE, lineStart, nameEnd)) {
+                    contentType = valueString(colon + 1, lineEnd);
+                } else if (equalsIgnoreCase(CONTENT_ID, lineStart, nameEnd)) {
+                    contentId = valueString(colon + 1, lineEnd);
+                }
+            }
+            lineStart = lineEnd + 2;
+        }
+
+        return new PartHeaders(contentType, contentId);
+    }
+
+    private String valueString(int start, int end) {
+        while ((start < end) && isWhitespace(headerBuffer[start])) {
+            start++;
+        }
+        end = trimEnd(start, end);
+        return new String(headerBuffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private int trimEnd(int start, int end) {
+        while ((end > start) && isWhitespace(headerBuffer[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean equalsIgnoreCase(byte[] name, int start, int end) {
+        if ((end - start) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (toLowerCase(headerBuffer[start + i]) != toLowerCase(name[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the next delimiter, handing everything before it to the handler as part content (or
+     * skipping it in the preamble). Ends either after the delimiter, or at the end of the chunk
+     * with any bytes that could start a delimiter held back in the carry.
+     */
+    private void scanForDelimiter(ByteBuffer chunk) throws IOException {
+        int m = delimiter.length;
+
+        if (carryLength > 0) {
+            // The delimiter may start in the carry and end in this chunk
+            for (int start = 0; start < carryLength; start++) {
+                int matched = matchPrefix(carry, start, carryLength, 0);
+                if (matched < (carryLength - start)) {
+                    continue;
+                }
+                int needed = Math.min(m - matched, chunk.remaining());
+                if (matchPrefix(chunk, chunk.position(), chunk.position() + needed,
+                        matched) < needed) {
+                    continue;
+                }
+
+                emit(ByteBuffer.wrap(carry, 0, start));
+                if ((matched + needed) == m) {
+                    chunk.position(chunk.position() + needed);
+                    carryLength = 0;
+                    onDelimiter();
+                } else {
+                    // Still only a prefix, and the chunk is used up
+                    System.arraycopy(carry, start, carry, 0, matched);
+                    chunk.get(carry, matched, needed);
+                    carryLength = matched + needed;
+                }
+                return;
+            }
+            emit(ByteBuffer.wrap(carry, 0, carryLength));
+            carryLength = 0;
+        }
+
+        int from = chunk.position();
+        int limit = chunk.limit();
+        int found = search(chunk, from, limit);
+        if (found != -1) {
+            emit(slice(chunk, from, found));
+            chunk.position(found + m);
+            onDelimiter();
+            return;
+        }
+
+        // Hold back the longest tail that is a prefix of the delimiter
+        int tail = Math.max(from, limit - (m - 1));
+        while ((tail < limit) && (matchPrefix(chunk, tail, limit, 0) < (limit - tail))) {
+            tail++;
+        }
+        emit(slice(chunk, from, tail));
+        carryLength = limit - tail;
+        chunk.position(tail);
+        chunk.get(carry, 0, carryLength);
+    }
+
+    private void onDelimiter() throws IOException {
+        if (state == State.BODY) {
+            handler.onPartEnd();
+        }
+        state = State.DELIMITER_END;
+    }
+
+    private void emit(ByteBuffer data) throws IOException {
+        if ((state == State.BODY) && data.hasRemaining()) {
+            handler.onPartData(data);
+        }
+    }
+
+    /**
+     * Boyer-Moore-Horspool search for the whole delimiter in [from, limit).
+     */
+    private int search(ByteBuffer buffer, int from, int limit) {
+        int m = delimiter.length;
+        int last = m - 1;
+        int i = from;
+        while (i <= (limit - m)) {
+            int j = last;
+            while (buffer.get(i + j) == delimiter[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += skipTable[buffer.get(i + last) & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * @return how many bytes of [start, end) match the delimiter from delimiterOffset on.
+     */
+    private int matchPrefix(byte[] bytes, int start, int end, int delimiterOffset) {
+        int matched = 0;
+        while (((start + matched) < end) && ((delimiterOffset + matched) < delimiter.length)
+                && (bytes[start + matched] == delimiter[delimiterOffset + matched])) {
+            matched++;
+        }
+        return matched;
+    }
+
+    private int matchPrefix(ByteBuffer bytes, int start, int end, int delimiterOffset) {
+        int matched = 0;
+        while (((start + matched) < end) && ((delimiterOffset + matched) < delimiter.length)
+                && (bytes.get(start + matched) == delimiter[delimiterOffset + matched])) {
+            matched++;
+        }
+        return matched;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(to).position(from);
+        return slice;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return (b == ' ') || (b == '\t');
+    }
+
+    private static int toLowerCase(byte b) {
+        return ((b >= 'A') && (b <= 'Z')) ? (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * The headers of a part that the client needs.
+     */
+    public static final class PartHeaders {
+        private final String contentType;
+        private final String contentId;
+
+        PartHeaders(String contentType, String contentId) {
+            this.contentType = contentType;
+            this.contentId = contentId;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the Content-ID header as sent, including the angle brackets.
+         */
+        public String getContentId() {
+            return contentId;
+        }
+    }
+
+    public interface PartHandler {
+        void onPartBegin(PartHeaders headers) throws IOException;
+
+        /**
+         * Called with the next piece of the part's content. The buffer is only valid for the
+         * duration of the call.
+         */
+        void onPartData(ByteBuffer data) throws IOException;
+
+        void onPartEnd() throws IOException;
+    }
+}
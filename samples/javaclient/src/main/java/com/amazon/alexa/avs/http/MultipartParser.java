@@ -12,42 +12,59 @@ import com.amazon.alexa.avs.http.jetty.PingSendingHttpClientTransportOverHTTP2.C
 import com.amazon.alexa.avs.message.response.Directive;
 import com.amazon.alexa.avs.message.response.ResponseBody;
 
-import org.apache.commons.fileupload.MultipartStream;
+import com.amazon.alexa.avs.http.MultipartDecoder.PartHandler;
+import com.amazon.alexa.avs.http.MultipartDecoder.PartHeaders;
+
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MultipartParser extends MessageParser implements ConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(MultipartParser.class);
-    private static final int MULTIPART_BUFFER_SIZE = 512;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // How much of an attachment may be buffered ahead of a consumer that is reading it, and how
+    // long the parser holds back the response for a consumer that has stopped reading
+    private static final int ATTACHMENT_HIGH_WATER_MARK = 64 * 1024;
+    private static final long ATTACHMENT_STALL_TIMEOUT_IN_MS = 2000;
 
     private final MultipartParserConsumer consumer;
+    private final boolean streamAttachments;
     private final AtomicBoolean shutdown;
-    private MultipartStream multipartStream;
-    private Map<String, String> headers;
+    private final PartReader partReader;
+    private final MultipartDecoder decoder;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final ByteArrayOutputStream partBytes = new ByteArrayOutputStream();
 
     public MultipartParser(MultipartParserConsumer consumer) {
+        this(consumer, true);
+    }
+
+    /**
+     * @param streamAttachments
+     *            whether the consumer is given each attachment as soon as its headers are read,
+     *            as a stream that fills while the rest of the part arrives, or only once the whole
+     *            part has been read.
+     */
+    public MultipartParser(MultipartParserConsumer consumer, boolean streamAttachments) {
         this.consumer = consumer;
+        this.streamAttachments = streamAttachments;
         this.shutdown = new AtomicBoolean(false);
+        this.partReader = new PartReader();
+        this.decoder = new MultipartDecoder(partReader);
     }
 
     public void parseStream(InputStream inputStream, String boundary) throws IOException {
         shutdown.set(false);
-        multipartStream =
-                new MultipartStream(inputStream, boundary.getBytes(), MULTIPART_BUFFER_SIZE, null);
-        headers = null;
+        decoder.reset(boundary);
 
-        loopStream();
+        loopStream(inputStream);
     }
 
     public void shutdownGracefully() {
@@ -58,32 +75,24 @@ public class MultipartParser extends MessageParser implements ConnectionListener
         return parse(bytes, ResponseBody.class);
     }
 
-    private void loopStream() throws IOException {
+    private void loopStream(InputStream inputStream) throws IOException {
         try {
-            boolean hasNextPart = multipartStream.skipPreamble();
-            while (hasNextPart) {
-                handlePart();
-                hasNextPart = multipartStream.readBoundary();
+            ByteBuffer chunk = ByteBuffer.wrap(readBuffer);
+            int read;
+            while (!decoder.isComplete()
+                    && ((read = inputStream.read(readBuffer, 0, readBuffer.length)) != -1)) {
+                chunk.limit(read).position(0);
+                decoder.feed(chunk);
             }
+            decoder.finish();
         } catch (IOException e) {
+            partReader.abort(e);
             if (!shutdown.get()) {
                 throw e;
             }
         }
     }
 
-    private void handlePart() throws IOException {
-        headers = getPartHeaders();
-        byte[] partBytes = getPartBytes();
-        boolean isMetadata = isPartJSON(headers);
-
-        if (isMetadata) {
-            handleMetadata(partBytes);
-        } else {
-            handleAudio(partBytes);
-        }
-    }
-
     private void handleMetadata(byte[] partBytes) throws IOException {
         Directive directive = parseResponseBody(partBytes).getDirective();
         if (directive != null) {
@@ -93,57 +102,94 @@ public class MultipartParser extends MessageParser implements ConnectionListener
         }
     }
 
-    private void handleAudio(byte[] partBytes) {
-        String contentId = getMultipartContentId(headers);
+    private void handleAudio(String contentId, byte[] partBytes) {
         InputStream attachmentContent = new ByteArrayInputStream(partBytes);
 
         consumer.onDirectiveAttachment(contentId, attachmentContent);
     }
 
-    private byte[] getPartBytes() throws IOException {
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
-        multipartStream.readBodyData(data);
-        return data.toByteArray();
+    private String getMultipartContentId(PartHeaders headers) {
+        String contentId = headers.getContentId();
+        contentId = contentId.substring(1, contentId.length() - 1);
+        return contentId;
     }
 
-    private Map<String, String> getPartHeaders() throws IOException {
-        String headers = multipartStream.readHeaders();
-        BufferedReader reader = new BufferedReader(new StringReader(headers));
-        Map<String, String> headerMap = new HashMap<>();
-        try {
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                line = line.trim();
-                if (!StringUtils.isBlank(line) && line.contains(":")) {
-                    int colon = line.indexOf(":");
-                    String headerName = line.substring(0, colon).trim();
-                    String headerValue = line.substring(colon + 1).trim();
-                    headerMap.put(headerName.toLowerCase(), headerValue);
-                }
+    private boolean isPartJSON(PartHeaders headers) {
+        return StringUtils.contains(headers.getContentType(), ContentTypes.JSON);
+    }
+
+    /**
+     * Collects metadata parts, and buffers or streams attachments to the consumer.
+     */
+    private class PartReader implements PartHandler {
+        private boolean isMetadata;
+        private String contentId;
+        private AttachmentPipe pipe;
+
+        @Override
+        public void onPartBegin(PartHeaders headers) throws IOException {
+            isMetadata = isPartJSON(headers);
+            partBytes.reset();
+            pipe = null;
+            if (isMetadata) {
+                return;
             }
-        } catch (Exception e) {
-        }
 
-        return headerMap;
-    }
+            contentId = getMultipartContentId(headers);
+            if (streamAttachments) {
+                pipe = new AttachmentPipe(ATTACHMENT_HIGH_WATER_MARK,
+                        ATTACHMENT_STALL_TIMEOUT_IN_MS);
+                consumer.onDirectiveAttachment(contentId, pipe.getInputStream());
+            }
+        }
 
-    private String getMultipartHeaderValue(Map<String, String> headers, String searchHeader) {
-        return headers.get(searchHeader.toLowerCase());
-    }
+        @Override
+        public void onPartData(ByteBuffer data) throws IOException {
+            if (pipe != null) {
+                pipe.write(data);
+                return;
+            }
+            if (data.hasArray()) {
+                partBytes.write(data.array(), data.arrayOffset() + data.position(),
+                        data.remaining());
+            } else {
+                while (data.hasRemaining()) {
+                    partBytes.write(data.get());
+                }
+            }
+        }
 
-    private String getMultipartContentId(Map<String, String> headers) {
-        String contentId = getMultipartHeaderValue(headers, HttpHeaders.CONTENT_ID);
-        contentId = contentId.substring(1, contentId.length() - 1);
-        return contentId;
-    }
+        @Override
+        public void onPartEnd() throws IOException {
+            if (isMetadata) {
+                handleMetadata(partBytes.toByteArray());
+            } else if (pipe != null) {
+                pipe.close();
+                pipe = null;
+            } else {
+                handleAudio(contentId, partBytes.toByteArray());
+            }
+        }
 
-    private boolean isPartJSON(Map<String, String> headers) {
-        String contentType = getMultipartHeaderValue(headers, HttpHeaders.CONTENT_TYPE);
-        return StringUtils.contains(contentType, ContentTypes.JSON);
+        /**
+         * Fail the attachment being streamed, if any, when the stream is cut off.
+         */
+        void abort(IOException cause) {
+            if (pipe != null) {
+                pipe.fail(cause);
+                pipe = null;
+            }
+        }
     }
 
     public interface MultipartParserConsumer {
         void onDirective(Directive directive);
 
+        /**
+         * Called for each attachment. When attachments are streamed, this is called as soon as the
+         * part starts and reads from attachmentContent block until the rest of it arrives, so this
+         * must not read the content itself.
+         */
         void onDirectiveAttachment(String contentId, InputStream attachmentContent);
     }
 
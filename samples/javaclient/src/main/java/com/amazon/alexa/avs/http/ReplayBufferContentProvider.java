@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import org.eclipse.jetty.client.api.ContentProvider;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Decorates a streaming {@link ContentProvider} and records what it produces into an
+ * {@link AudioReplayBuffer} to allow for HTTP request retries. Unlike
+ * {@link CachingContentProvider} the memory used is bounded: once the content outgrows the buffer
+ * it keeps streaming, but it can no longer be replayed.
+ */
+public class ReplayBufferContentProvider implements ReplayableContentProvider, ContentProvider.Typed {
+    private final ContentProvider contentProvider;
+    private final AudioReplayBuffer replayBuffer;
+    private Iterator<ByteBuffer> originalIterator;
+    private boolean overflowed;
+
+    public ReplayBufferContentProvider(ContentProvider contentProvider,
+            AudioReplayBuffer replayBuffer) {
+        this.contentProvider = contentProvider;
+        this.replayBuffer = replayBuffer;
+    }
+
+    @Override
+    public long getLength() {
+        return contentProvider.getLength();
+    }
+
+    @Override
+    public synchronized Iterator<ByteBuffer> iterator() {
+        if (originalIterator == null) {
+            replayBuffer.claim(this);
+            originalIterator = contentProvider.iterator();
+            return new ReplayIterator(null);
+        } else {
+            return new ReplayIterator(replayBuffer.recorded());
+        }
+    }
+
+    @Override
+    public synchronized boolean isReplayable() {
+        return !overflowed && replayBuffer.isOwnedBy(this);
+    }
+
+    @Override
+    public String getContentType() {
+        if (contentProvider instanceof ContentProvider.Typed) {
+            return ((ContentProvider.Typed) contentProvider).getContentType();
+        }
+        return null;
+    }
+
+    private synchronized ByteBuffer nextOriginal() {
+        ByteBuffer byteBuffer = originalIterator.next();
+        if (!overflowed && !replayBuffer.record(this, byteBuffer)) {
+            overflowed = true;
+        }
+        return byteBuffer;
+    }
+
+    /**
+     * Replays the recorded content, if any, and then continues with the original content.
+     */
+    private class ReplayIterator implements Iterator<ByteBuffer> {
+        private ByteBuffer replay;
+
+        public ReplayIterator(ByteBuffer replay) {
+            this.replay = replay;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return ((replay != null) && replay.hasRemaining()) || originalIterator.hasNext();
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if ((replay != null) && replay.hasRemaining()) {
+                ByteBuffer recorded = replay;
+                replay = null;
+                return recorded;
+            }
+            return nextOriginal();
+        }
+    }
+}
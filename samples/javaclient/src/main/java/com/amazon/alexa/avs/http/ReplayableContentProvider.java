@@ -0,0 +1,22 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import org.eclipse.jetty.client.api.ContentProvider;
+
+/**
+ * A {@link ContentProvider} that can only be iterated again, e.g. for a retry, as long as it has
+ * kept all of its content.
+ */
+public interface ReplayableContentProvider extends ContentProvider {
+    /**
+     * Returns whether or not another call to {@link #iterator()} will produce the full content.
+     */
+    boolean isReplayable();
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http.jetty;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Response.Listener;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Listener} that hands the response content to the application in the
+ * {@link ByteBuffer}s Jetty received it in, without copying them.
+ * <p>
+ * Each buffer is wrapped in a {@link Chunk} and queued together with the Jetty {@link Callback}
+ * for it. The callback is only completed when the consumer calls {@link Chunk#release()}, so
+ * Jetty can't reuse the buffer while it is still being read, and HTTP/2 flow control limits how
+ * much unreleased content is held, instead of the blocking in
+ * {@link InputStreamResponseListener#onContent(Response, ByteBuffer)}.
+ * <p>
+ * The content can be consumed either chunk by chunk with {@link #takeChunk()}, or through the
+ * {@link InputStream} returned by {@link #getInputStream()}, which copies each byte once into the
+ * caller's array.
+ */
+public class ChunkedResponseListener extends Listener.Adapter {
+    private static final Logger log = LoggerFactory.getLogger(ChunkedResponseListener.class);
+
+    private final Queue<Chunk> chunks = new ArrayDeque<>();
+    private final CountDownLatch responseLatch = new CountDownLatch(1);
+    private final CountDownLatch resultLatch = new CountDownLatch(1);
+    private final AtomicBoolean streamCreated = new AtomicBoolean(false);
+    private Response response;
+    private Result result;
+    private Throwable failure;
+    private boolean closed;
+    private boolean ended;
+
+    @Override
+    public void onHeaders(Response response) {
+        this.response = response;
+        responseLatch.countDown();
+    }
+
+    @Override
+    public void onContent(Response response, ByteBuffer content, Callback callback) {
+        if (!content.hasRemaining()) {
+            callback.succeeded();
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed && (failure == null)) {
+                chunks.add(new Chunk(content, callback));
+                notifyAll();
+                return;
+            }
+        }
+        log.debug("Dropping {} bytes, the content has already been closed", content.remaining());
+        callback.succeeded();
+    }
+
+    @Override
+    public void onSuccess(Response response) {
+        synchronized (this) {
+            ended = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onFailure(Response response, Throwable failure) {
+        fail(failure);
+    }
+
+    @Override
+    public void onComplete(Result result) {
+        if (result.isFailed()) {
+            fail(result.getFailure());
+        }
+        this.result = result;
+        resultLatch.countDown();
+    }
+
+    private void fail(Throwable cause) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = cause;
+            }
+            notifyAll();
+        }
+        responseLatch.countDown();
+    }
+
+    /**
+     * Waits for the given timeout for the response headers to be available, then returns the
+     * response.
+     *
+     * @param timeout
+     *            the time to wait
+     * @param unit
+     *            the timeout unit
+     * @return the response
+     * @throws InterruptedException
+     *             if the thread is interrupted
+     * @throws TimeoutException
+     *             if the timeout expires
+     * @throws ExecutionException
+     *             if a failure happened
+     */
+    public Response get(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException, ExecutionException {
+        if (!responseLatch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Waits for the given timeout for the whole request/response cycle to be finished, then
+     * returns the corresponding result.
+     */
+    public Result await(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!resultLatch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result;
+    }
+
+    /**
+     * Blocks until the next chunk of content is available. The caller owns the returned chunk and
+     * must {@link Chunk#release()} it once it is done with its buffer.
+     *
+     * @return the next chunk, or null once all the content has been consumed.
+     * @throws IOException
+     *             if the response failed or the content was closed.
+     */
+    public Chunk takeChunk() throws IOException {
+        Chunk chunk;
+        synchronized (this) {
+            try {
+                while (chunks.isEmpty() && !ended && (failure == null) && !closed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            chunk = chunks.poll();
+            if (chunk == null) {
+                if (closed) {
+                    throw new AsynchronousCloseException();
+                }
+                if (failure != null) {
+                    throw (failure instanceof IOException) ? (IOException) failure
+                            : new IOException(failure);
+                }
+                return null;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns an {@link InputStream} providing the response content bytes.
+     * <p>
+     * The method may be invoked only once; subsequent invocations will return a closed
+     * {@link InputStream}.
+     */
+    public InputStream getInputStream() {
+        if (streamCreated.compareAndSet(false, true)) {
+            return new Input();
+        }
+        return IO.getClosedStream();
+    }
+
+    /**
+     * Stop accepting content, and give back every chunk that hasn't been consumed yet.
+     */
+    public void close() {
+        Queue<Chunk> unconsumed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            unconsumed = new ArrayDeque<>(chunks);
+            chunks.clear();
+            notifyAll();
+        }
+        for (Chunk chunk : unconsumed) {
+            chunk.release();
+        }
+    }
+
+    /**
+     * A buffer of response content as received from Jetty, which stays valid until it is released.
+     */
+    public static final class Chunk {
+        private final ByteBuffer buffer;
+        private final Callback callback;
+        private boolean released;
+
+        private Chunk(ByteBuffer buffer, Callback callback) {
+            this.buffer = buffer;
+            this.callback = callback;
+        }
+
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Give the buffer back to Jetty, which lets it read more of the response.
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                callback.succeeded();
+            }
+        }
+    }
+
+    private class Input extends InputStream {
+        private Chunk current;
+        private boolean eof;
+
+        /**
+         * @return the current chunk with content remaining, or null at the end of the content.
+         */
+        private ByteBuffer next() throws IOException {
+            if ((current != null) && current.getByteBuffer().hasRemaining()) {
+                return current.getByteBuffer();
+            }
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+            if (eof) {
+                return null;
+            }
+            current = takeChunk();
+            if (current == null) {
+                eof = true;
+                return null;
+            }
+            return current.getByteBuffer();
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer buffer = next();
+            if (buffer == null) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if ((off < 0) || (len < 0) || (len > (b.length - off))) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+
+            // Only block for the first chunk, like a socket read
+            ByteBuffer buffer = next();
+            if (buffer == null) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (current == null) ? 0 : current.getByteBuffer().remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+            if (!eof) {
+                ChunkedResponseListener.this.close();
+            }
+        }
+    }
+}
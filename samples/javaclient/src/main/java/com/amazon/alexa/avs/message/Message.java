@@ -14,23 +14,20 @@ import com.amazon.alexa.avs.message.Message.MessageDeserializer;
 import com.amazon.alexa.avs.message.response.AlexaExceptionResponse;
 import com.amazon.alexa.avs.message.response.Directive;
 
+import org.codehaus.jackson.JsonLocation;
 import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.DeserializationContext;
 import org.codehaus.jackson.map.JsonDeserializer;
-import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectReader;
 import org.codehaus.jackson.map.annotate.JsonDeserialize;
-import org.codehaus.jackson.node.ObjectNode;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
 
 /**
  * A message from the server. Can be an
@@ -45,21 +42,18 @@ public abstract class Message {
     @JsonIgnore
     private String rawMessage;
 
-    protected Message(Header header, JsonNode payload, String rawMessage)
-            throws JsonParseException, JsonMappingException, IOException {
-
+    @JsonIgnore
+    private Supplier<String> rawMessageSupplier;
+
+    /**
+     * @param rawMessage
+     *            produces the JSON text of the message, only when {@link #getRawMessage()} is
+     *            first called.
+     */
+    protected Message(Header header, Payload payload, Supplier<String> rawMessage) {
         this.header = header;
-        try {
-            ObjectReader reader = ObjectMapperFactory.getObjectReader();
-            Class<?> type = Class.forName(getClass().getPackage().getName() + "."
-                    + header.getNamespace().toLowerCase() + "." + header.getName());
-            this.payload = (Payload) reader.withType(type).readValue(payload);
-        } catch (ClassNotFoundException e) {
-            // Default to empty payload
-            this.payload = new Payload();
-        }
-
-        this.rawMessage = rawMessage;
+        this.payload = payload;
+        this.rawMessageSupplier = rawMessage;
     }
 
     protected Message(Header header, Payload payload, String rawMessage) {
@@ -94,7 +88,11 @@ public abstract class Message {
         return payload;
     }
 
-    public String getRawMessage() {
+    public synchronized String getRawMessage() {
+        if ((rawMessage == null) && (rawMessageSupplier != null)) {
+            rawMessage = rawMessageSupplier.get();
+            rawMessageSupplier = null;
+        }
         return rawMessage;
     }
 
@@ -103,43 +101,93 @@ public abstract class Message {
         return header.toString();
     }
 
+    /**
+     * Reads a message in a single pass: the header, then the payload straight into the type
+     * registered for it in the {@link PayloadRegistry}. The raw message is kept as a reference
+     * into the bytes being parsed, and only decoded if it is asked for.
+     */
     public static class MessageDeserializer extends JsonDeserializer<Message> {
-        private static final Logger log = LoggerFactory.getLogger(MessageDeserializer.class);
+        private static final ObjectReader HEADER_READER =
+                ObjectMapperFactory.getObjectReader(DialogRequestIdHeader.class);
 
         @Override
         public Message deserialize(JsonParser jp, DeserializationContext ctx)
                 throws IOException, JsonProcessingException {
-            ObjectReader reader = ObjectMapperFactory.getObjectReader();
-            ObjectNode obj = (ObjectNode) reader.readTree(jp);
-            Iterator<Entry<String, JsonNode>> elementsIterator = obj.getFields();
+            JsonLocation start = jp.getTokenLocation();
+            if (!(start.getSourceRef() instanceof byte[]) || (start.getByteOffset() < 0)) {
+                // Not parsing from bytes that can be pointed back into, so keep the text now
+                JsonNode tree = jp.readValueAsTree();
+                String rawMessage = tree.toString();
+                JsonParser treeParser = tree.traverse();
+                treeParser.setCodec(jp.getCodec());
+                treeParser.nextToken();
+                return readMessage(treeParser, ctx, () -> rawMessage);
+            }
 
-            String rawMessage = obj.toString();
+            byte[] source = (byte[]) start.getSourceRef();
+            int offset = (int) start.getByteOffset();
+            // The end is only known once the message has been read
+            int[] end = new int[1];
+            Message message = readMessage(jp, ctx, () -> new String(source, offset,
+                    end[0] - offset, StandardCharsets.UTF_8));
+            end[0] = (int) jp.getCurrentLocation().getByteOffset();
+            return message;
+        }
 
+        private Message readMessage(JsonParser jp, DeserializationContext ctx,
+                Supplier<String> rawMessage) throws IOException, JsonProcessingException {
             DialogRequestIdHeader header = null;
+            Payload payload = null;
             JsonNode payloadNode = null;
-            ObjectReader headerReader =
-                    ObjectMapperFactory.getObjectReader(DialogRequestIdHeader.class);
-            while (elementsIterator.hasNext()) {
-                Entry<String, JsonNode> element = elementsIterator.next();
-                if (element.getKey().equals("header")) {
-                    header = headerReader.readValue(element.getValue());
-                }
-                if (element.getKey().equals("payload")) {
-                    payloadNode = element.getValue();
+
+            JsonToken token = jp.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = jp.nextToken();
+            }
+            for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+                String field = jp.getCurrentName();
+                jp.nextToken();
+                if (field.equals("header")) {
+                    header = HEADER_READER.readValue(jp);
+                } else if (field.equals("payload")) {
+                    if (header != null) {
+                        payload = readPayload(header, jp);
+                    } else {
+                        // The type isn't known until the header has been read
+                        payloadNode = jp.readValueAsTree();
+                    }
+                } else {
+                    jp.skipChildren();
                 }
             }
             if (header == null) {
                 throw ctx.mappingException("Missing header");
             }
-            if (payloadNode == null) {
+            if ((payload == null) && (payloadNode == null)) {
                 throw ctx.mappingException("Missing payload");
             }
+            if (payload == null) {
+                JsonParser payloadParser = payloadNode.traverse();
+                payloadParser.setCodec(jp.getCodec());
+                payloadParser.nextToken();
+                payload = readPayload(header, payloadParser);
+            }
+
+            return createMessage(header, payload, rawMessage);
+        }
 
-            return createMessage(header, payloadNode, rawMessage);
+        private Payload readPayload(Header header, JsonParser jp) throws IOException {
+            ObjectReader reader =
+                    PayloadRegistry.getReader(header.getNamespace(), header.getName());
+            if (reader == null) {
+                // Default to empty payload
+                jp.skipChildren();
+                return new Payload();
+            }
+            return reader.readValue(jp);
         }
 
-        private Message createMessage(Header header, JsonNode payload, String rawMessage)
-                throws JsonParseException, JsonMappingException, IOException {
+        private Message createMessage(Header header, Payload payload, Supplier<String> rawMessage) {
             if (AVSAPIConstants.System.NAMESPACE.equals(header.getNamespace())
                     && AVSAPIConstants.System.Exception.NAME.equals(header.getName())) {
                 return new AlexaExceptionResponse(header, payload, rawMessage);
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.message;
+
+import com.amazon.alexa.avs.AVSAPIConstants;
+import com.amazon.alexa.avs.AVSAPIConstants.Alerts;
+import com.amazon.alexa.avs.AVSAPIConstants.AudioPlayer;
+import com.amazon.alexa.avs.AVSAPIConstants.Speaker;
+import com.amazon.alexa.avs.AVSAPIConstants.SpeechSynthesizer;
+import com.amazon.alexa.avs.config.ObjectMapperFactory;
+import com.amazon.alexa.avs.message.response.alerts.DeleteAlert;
+import com.amazon.alexa.avs.message.response.alerts.SetAlert;
+import com.amazon.alexa.avs.message.response.audioplayer.ClearQueue;
+import com.amazon.alexa.avs.message.response.audioplayer.Play;
+import com.amazon.alexa.avs.message.response.audioplayer.Stop;
+import com.amazon.alexa.avs.message.response.speaker.AdjustVolume;
+import com.amazon.alexa.avs.message.response.speaker.SetMute;
+import com.amazon.alexa.avs.message.response.speaker.SetVolume;
+import com.amazon.alexa.avs.message.response.speechsynthesizer.Speak;
+
+import org.codehaus.jackson.map.ObjectReader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the namespace and name of a message to the reader for its payload type, so a payload can
+ * be read straight from the JSON without looking its class up by name for every message.
+ * Messages that aren't registered get an empty {@link Payload}.
+ */
+public final class PayloadRegistry {
+    private static final Map<String, Map<String, ObjectReader>> READERS =
+            new ConcurrentHashMap<>();
+
+    static {
+        register(Alerts.NAMESPACE, Alerts.Directives.SetAlert.NAME, SetAlert.class);
+        register(Alerts.NAMESPACE, Alerts.Directives.DeleteAlert.NAME, DeleteAlert.class);
+        register(AudioPlayer.NAMESPACE, AudioPlayer.Directives.Play.NAME, Play.class);
+        register(AudioPlayer.NAMESPACE, AudioPlayer.Directives.Stop.NAME, Stop.class);
+        register(AudioPlayer.NAMESPACE, AudioPlayer.Directives.ClearQueue.NAME, ClearQueue.class);
+        register(Speaker.NAMESPACE, Speaker.Directives.SetVolume.NAME, SetVolume.class);
+        register(Speaker.NAMESPACE, Speaker.Directives.AdjustVolume.NAME, AdjustVolume.class);
+        register(Speaker.NAMESPACE, Speaker.Directives.SetMute.NAME, SetMute.class);
+        register(SpeechSynthesizer.NAMESPACE, SpeechSynthesizer.Directives.Speak.NAME, Speak.class);
+        register(AVSAPIConstants.System.NAMESPACE, AVSAPIConstants.System.Exception.NAME,
+                com.amazon.alexa.avs.message.response.system.Exception.class);
+    }
+
+    private PayloadRegistry() {
+    }
+
+    /**
+     * Register the payload type for messages with the given namespace and name.
+     */
+    public static void register(String namespace, String name, Class<? extends Payload> type) {
+        READERS.computeIfAbsent(namespace, n -> new ConcurrentHashMap<>()).put(name,
+                ObjectMapperFactory.getObjectReader(type));
+    }
+
+    /**
+     * @return the reader for the payload of messages with the given namespace and name, or null
+     *         if there is no payload type registered for them.
+     */
+    public static ObjectReader getReader(String namespace, String name) {
+        Map<String, ObjectReader> names = READERS.get(namespace);
+        return (names == null) ? null : names.get(name);
+    }
+}
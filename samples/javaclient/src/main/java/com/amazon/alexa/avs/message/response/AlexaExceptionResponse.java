@@ -11,17 +11,13 @@ package com.amazon.alexa.avs.message.response;
 import com.amazon.alexa.avs.exception.AlexaSystemException;
 import com.amazon.alexa.avs.message.Header;
 import com.amazon.alexa.avs.message.Message;
+import com.amazon.alexa.avs.message.Payload;
 
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.JsonParseException;
-import org.codehaus.jackson.map.JsonMappingException;
-
-import java.io.IOException;
+import java.util.function.Supplier;
 
 public class AlexaExceptionResponse extends Message {
 
-    public AlexaExceptionResponse(Header header, JsonNode payload, String rawMessage)
-            throws JsonParseException, JsonMappingException, IOException {
+    public AlexaExceptionResponse(Header header, Payload payload, Supplier<String> rawMessage) {
         super(header, payload, rawMessage);
     }
 
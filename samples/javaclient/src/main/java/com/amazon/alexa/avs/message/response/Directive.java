@@ -11,21 +11,18 @@ package com.amazon.alexa.avs.message.response;
 import com.amazon.alexa.avs.message.DialogRequestIdHeader;
 import com.amazon.alexa.avs.message.Header;
 import com.amazon.alexa.avs.message.Message;
+import com.amazon.alexa.avs.message.Payload;
 
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.annotate.JsonIgnore;
-import org.codehaus.jackson.map.JsonMappingException;
 
-import java.io.IOException;
+import java.util.function.Supplier;
 
 public class Directive extends Message {
 
     @JsonIgnore
     private final String dialogRequestId;
 
-    public Directive(Header header, JsonNode payload, String rawMessage)
-            throws JsonParseException, JsonMappingException, IOException {
+    public Directive(Header header, Payload payload, Supplier<String> rawMessage) {
         super(header, payload, rawMessage);
         dialogRequestId = extractDialogRequestId();
     }
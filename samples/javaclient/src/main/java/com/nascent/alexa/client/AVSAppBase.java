@@ -207,6 +207,12 @@ public abstract class AVSAppBase implements ExpectSpeechListener, RecordingRMSLi
     
     // starts recording and sending message to alexa    
     protected void doRecord()
+    {
+        doRecord(controller.getCaptureSampleIndex());
+    }
+
+    // starts recording from the given capture sample, which may be in the capture history
+    protected void doRecord(long startSampleIndex)
     {
         final RecordingRMSListener rmsListener = this;
         
@@ -228,7 +234,7 @@ public abstract class AVSAppBase implements ExpectSpeechListener, RecordingRMSLi
         };
         
         System.out.println("Recording started at: " + (new Date()).toString());
-        controller.startRecording(rmsListener, requestListener);
+        controller.startRecording(rmsListener, requestListener, startSampleIndex);
         
         handleEndRecording();
     }
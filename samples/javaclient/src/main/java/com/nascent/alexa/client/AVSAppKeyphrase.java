@@ -1,59 +1,95 @@
 package com.nascent.alexa.client;
 
 
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.amazon.alexa.avs.AudioCapture;
 import com.amazon.alexa.avs.AudioInputFormat;
+import com.amazon.alexa.avs.AudioRing;
+import com.amazon.alexa.avs.LocalCommand;
 import com.amazon.alexa.avs.MicrophoneLineFactory;
 import com.amazon.alexa.avs.RecordingStateListener;
+import com.amazon.alexa.avs.SpeechProfile;
+import com.amazon.alexa.avs.EndpointListener;
+import com.amazon.alexa.avs.EndpointPolicy;
+import com.amazon.alexa.avs.Endpointer;
 
 import edu.cmu.pocketsphinx.Config;
 import edu.cmu.pocketsphinx.Decoder;
-import edu.cmu.pocketsphinx.Hypothesis;
+
+import javax.sound.sampled.LineUnavailableException;
 
 
 //com.nascent.alexa.client.AVSAppKeyphrase
 //----------------------------------------
 //implements: pocketsphinx keyphrase detection & vad silence detection
 //
-public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListener 
+public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListener, EndpointListener 
 {
     static 
     {
         System.loadLibrary("pocketsphinx_jni");
     }
 
-    private static final String TRIGGER_PHRASE = "alexa";
-	private static final float  KWS_THRESHOLD = 1e-5f;
+	// the keywords to spot, with their thresholds and what to do when each is heard
+	private static final String KEYWORD_FILE = "keywords.txt";
+	private static final String KEYWORD_SEARCH = "keywords";
+
+	// stop, pause and volume commands said after the wake word are also recognized here and acted
+	// on at once, if they start within this long of it
+	private static final String COMMAND_SEARCH = "commands";
+	private static final long COMMAND_WINDOW_MS = 3000;
 	
 	private static final String PATH_PREFIX = "model";
 	private static final String ACOUSTIC_MODEL = PATH_PREFIX + "/en-us/en-us";
 	private static final String DICTIONARY = PATH_PREFIX + "/en-us/cmudict-en-us.dict";
 
-	public static final long DEFAULT_DURATION = 8000; 
+	// backstop in case the capture stalls, the endpoint policy's maximum normally ends a recording first
+	public static final long DEFAULT_DURATION = 12000; 
+
+	// the recognize starts this long before the keyword ends, the recognizer's end is only as exact
+	// as its frames so this keeps the start of a command spoken straight after the keyword. the
+	// recognize isn't sent as wake word audio, so the keyword itself is left out
+	private static final long KEYWORD_END_MARGIN_MS = 100;
+
+	// the keyword decoder only runs while the vad hears speech, primed with this much of the audio
+	// before it, and sleeps again after this much silence
+	private static final int GATE_LOOKBACK_MS = 1000;
+	private static final int GATE_HANGOVER_MS = 1000;
 
-    private Thread 	autoEndpoint = null; // used to auto-endpoint while listening
     private Timer 	autoKillRecordingTimer = null;
 
-    // minimum audio level threshold under which is considered silence
-    private static final int OSX_ENDPOINT_THRESHOLD = 5;
-    private static final int NASCENT_ENDPOINT_THRESHOLD = 1;
-    
-    private int ENDPOINT_THRESHOLD = 1;
-    private static final int ENDPOINT_SECONDS = 2; // amount of silence time before endpointing
+    // runs the endpoint off the capture thread, which reports the end of speech
+    private final ExecutorService endpointExecutor = Executors.newSingleThreadExecutor();
+
+    // give up if no speech starts within 5 s, end after 700 ms of silence following at least 250 ms
+    // of speech, and never record longer than 10 s
+    private static final EndpointPolicy ENDPOINT_POLICY = new EndpointPolicy(5000, 700, 250, 10000);
+    // audio kept after the end of speech when the recognize is cut there
+    private static final long ENDPOINT_TAIL_MS = 200;
+    // with near field alexa hears the end of speech and sends StopCapture, so the recognize isn't
+    // stopped locally on the end of speech, only when there's none or it runs too long. the local
+    // end of speech is still detected, to measure how long after it the recording stopped.
+    // CLOSE_TALK goes back to ending it on the device
+    private static final SpeechProfile SPEECH_PROFILE = SpeechProfile.NEAR_FIELD;
 	
 	
 	private static final AudioInputFormat SPHINX_AUDIO_TYPE = AudioInputFormat.LPCM;
 	
 	private Config				m_PocketSphinxConfig = null;
-	private boolean				m_bAlexaNeedsMicrophone = false;
+	private volatile boolean	m_bAlexaNeedsMicrophone = false;
 	private Decoder 			m_decoder;
+	private KeywordSpotter		m_keywordSpotter;
+	private KeywordList			m_keywords;
+	private CommandRecognizer	m_commandRecognizer;
+	// recognizes local commands alongside the upload of the request
+	private final ExecutorService m_commandExecutor = Executors.newSingleThreadExecutor();
 	private AudioCapture 		microphone;
 	private volatile boolean	m_bMicLock = false;
 
@@ -69,32 +105,35 @@ public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListene
     	setupSphinxRecognizer();
     }
     
-    void setupSphinxRecognizer()
+    void setupSphinxRecognizer() throws LineUnavailableException, IOException
     {
-    	String osName = System.getProperty("os.name").toLowerCase();
-    	if (osName.contains("mac"))
-    	{
-    		ENDPOINT_THRESHOLD = OSX_ENDPOINT_THRESHOLD;
-        	System.out.println("Configured Endpoint for OSX");
-    	}
-    	else
-    	{
-    		ENDPOINT_THRESHOLD = NASCENT_ENDPOINT_THRESHOLD;
-        	System.out.println("Configured Endpoint for NASCENT-MAIN");
-    	}
+    	m_keywords = KeywordList.load(new File(KEYWORD_FILE));
+    	System.out.println("SPOTTING " + m_keywords.getKeywords());
     	
     	m_PocketSphinxConfig = Decoder.defaultConfig();
     	m_PocketSphinxConfig.setString("-hmm", ACOUSTIC_MODEL);
     	m_PocketSphinxConfig.setString("-dict", DICTIONARY);
-        
-    	m_PocketSphinxConfig.setString("-keyphrase", TRIGGER_PHRASE);
-    	m_PocketSphinxConfig.setFloat("-kws_threshold", KWS_THRESHOLD);
     	
     	m_PocketSphinxConfig.setBoolean("-allphone_ci", true);
     	m_PocketSphinxConfig.setString("-logfn", "/dev/null");
         
         m_decoder = new Decoder(m_PocketSphinxConfig);
+        // one decoder searches for every keyword in a single pass
+        m_keywords.apply(m_decoder, KEYWORD_SEARCH);
+        m_keywordSpotter = new KeywordSpotter(m_decoder, SPHINX_AUDIO_TYPE.getChunkSizeBytes() / 2,
+        		SPHINX_AUDIO_TYPE.getAudioFormat().getSampleRate());
+        m_keywordSpotter.setGate(GATE_LOOKBACK_MS, GATE_HANGOVER_MS);
+        m_commandRecognizer = new CommandRecognizer(m_decoder, COMMAND_SEARCH,
+        		SPHINX_AUDIO_TYPE.getChunkSizeBytes() / 2, SPHINX_AUDIO_TYPE.getAudioFormat().getSampleRate());
         this.microphone = AudioCapture.getAudioHardware(SPHINX_AUDIO_TYPE.getAudioFormat(), new MicrophoneLineFactory());
+        
+        // keep the mic open so recording starts without reopening it and can include the pre-roll
+        this.microphone.startContinuousCapture();
+        
+        // the vad adapts to the noise floor, so no per platform silence threshold is needed
+        this.microphone.setEndpointPolicy(ENDPOINT_POLICY);
+        this.microphone.getEndpointer().addListener(this);
+        controller.setSpeechProfile(SPEECH_PROFILE);
 
         controller.playHello();
         while(controller.isPlayingMP3Resource())
@@ -138,44 +177,36 @@ public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListene
         		
         		blockOnMic();
         		
-        		InputStream inputStream = microphone.getAudioInputStream(this, this);
-        		
-        		// flush the stream
-        		Thread.sleep(50);
-        		inputStream.read(new byte[inputStream.available()]);
+        		// read the capture from now on, older audio was already searched
+        		AudioRing.Cursor inputStream = microphone.openCursor(microphone.getSampleIndex());
         		
-        		// now start decoding
-		        byte[] b = new byte[40960];
-		        short[] s = new short[40960];
-		        int nbytes;
-	
-		        m_decoder.startUtt();
-		        
 		        // continue listening until the keyword is detected or alexa needs the microphone for a dialog call back
-		        Hypothesis thisHyp = m_decoder.hyp();
-		        while ((thisHyp == null) && !m_bAlexaNeedsMicrophone) 
+		        long keywordSampleIndex;
+		        synchronized (m_decoder)
 		        {
-		        	//System.out.println("AVAILABLE = " + inputStream.available());
-		        	nbytes = inputStream.read(b);
-		        	//System.out.println("Bytes read = " + Integer.toString(nbytes));
-		        	if (nbytes > 0)
-		        	{
-			            ByteBuffer bb = ByteBuffer.wrap(b, 0, nbytes);
-			            bb.order(ByteOrder.LITTLE_ENDIAN);
-			            bb.asShortBuffer().get(s, 0, nbytes/2);
-			            m_decoder.processRaw(s, nbytes/2, false, false);
-			            thisHyp = m_decoder.hyp();
-		        	}
+		        	keywordSampleIndex = m_keywordSpotter.spot(inputStream, () -> m_bAlexaNeedsMicrophone);
 		        }
-	    		this.microphone.stopCapture();
-	    		m_decoder.endUtt();
+		        inputStream.close();
 	
+		        KeywordList.Keyword keyword = m_keywords.find(m_keywordSpotter.getDetectedKeyword());
+		        if ((keywordSampleIndex >= 0) && (keyword == null))
+		        {
+		        	System.out.println("HEARD UNKNOWN KEYWORD " + m_keywordSpotter.getDetectedKeyword());
+		        }
+		        else if ((keyword != null) && (keyword.getAction() == KeywordList.Action.STOP))
+		        {
+		        	// handled here so playback stops without waiting on the cloud
+		        	System.out.println("HEARD " + keyword.getPhrase().toUpperCase() + ", STOPPING " + m_keywordSpotter.getStats());
+		        	controller.onUserActivity();
+		        	controller.stopAllOutput();
+		        }
 		        // record interaction in this thread if keyword is heard and there isn't a dialog call back waiting
-		        if ((thisHyp != null) && !m_bAlexaNeedsMicrophone)
+		        else if ((keyword != null) && !m_bAlexaNeedsMicrophone)
 		        {
-		        	System.out.println("HEARD ALEXA!!!");
+		        	System.out.println("HEARD " + keyword.getPhrase().toUpperCase() + "!!! " + m_keywordSpotter.getStats());
 			        controller.onUserActivity();
-			        doRecord();	        
+			        recognizeCommand(m_keywordSpotter.getKeywordEndSampleIndex());
+			        doRecord(m_keywordSpotter.getKeywordEndSampleIndex() - microphone.millisToSamples(KEYWORD_END_MARGIN_MS));
 		        }
 		        else
 		        {
@@ -247,51 +278,6 @@ public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListene
     @Override
     public void rmsChanged(int rms) 
     {
-    	if (super.interactionPumpIsBusy())
-    	{
-            // if greater than threshold or not recording, kill the autoendpoint thread
-            if ((rms == 0) || (rms > ENDPOINT_THRESHOLD)) 
-            {
-                if (autoEndpoint != null) 
-                {
-                	System.out.println("RESETING AUTOENDPOINT");
-                    autoEndpoint.interrupt();
-                    autoEndpoint = null;
-                }
-            } 
-            else if (rms <= ENDPOINT_THRESHOLD) 
-            {
-                // start the autoendpoint thread if it isn't already running
-                if (autoEndpoint == null) 
-                {
-                	System.out.println("BELOW AUTOENDPOINT THRESHOLD");
-                    autoEndpoint = new Thread() 
-                    {
-                        @Override
-                        public void run() 
-                        {
-                            try 
-                            {
-                                Thread.sleep(ENDPOINT_SECONDS * 1000);
-                                cancelRecording();
-                            } 
-                            catch (InterruptedException e) 
-                            {
-                                return;
-                            }
-                        }
-                    };
-                    
-                    if (autoKillRecordingTimer != null)
-                    {
-                    	autoKillRecordingTimer.cancel();
-                    	autoKillRecordingTimer = null;
-                    }
-                    
-                    autoEndpoint.start();
-                }
-            }
-    	}
     	/*
     	if (!super.interactionPumpIsBusy())
     		System.out.print("PS:");
@@ -299,6 +285,56 @@ public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListene
     	*/
     }
     
+    @Override
+    public void onEndpoint(Endpointer.Reason reason, long endSampleIndex) 
+    {
+    	if (super.interactionPumpIsBusy())
+    	{
+    		System.out.println("ENDPOINTING: " + reason);
+    		if ((reason == Endpointer.Reason.END_OF_SPEECH) && controller.getSpeechProfile().isCloudEndpointed())
+    		{
+    			System.out.println("WAITING FOR STOPCAPTURE");
+    		}
+    		else if (reason == Endpointer.Reason.END_OF_SPEECH)
+    		{
+    			// the silence after the speech doesn't need to be sent
+    			long cutSampleIndex = endSampleIndex + microphone.millisToSamples(ENDPOINT_TAIL_MS);
+    			endpointExecutor.execute(() -> cancelRecording(cutSampleIndex));
+    		}
+    		else
+    		{
+    			endpointExecutor.execute(() -> cancelRecording());
+    		}
+    	}
+    }
+    
+    // listens for a local command from the end of the wake word while the request is uploaded,
+    // so stop, pause and volume take effect without waiting for the cloud or when it's unreachable
+    private void recognizeCommand(long startSampleIndex)
+    {
+    	AudioRing.Cursor cursor = microphone.openCursor(startSampleIndex);
+    	m_commandExecutor.execute(() -> {
+    		try
+    		{
+    			LocalCommand command;
+    			synchronized (m_decoder)
+    			{
+    				command = m_commandRecognizer.recognize(cursor,
+    						microphone.millisToSamples(COMMAND_WINDOW_MS), () -> false);
+    			}
+    			if (command != null)
+    			{
+    				System.out.println("LOCAL COMMAND " + command + ": " + m_commandRecognizer.getStats());
+    				controller.handleLocalCommand(command);
+    			}
+    		}
+    		finally
+    		{
+    			cursor.close();
+    		}
+    	});
+    }
+    
     private void cancelRecording()
     {
         actionButton.setText(PROCESSING_LABEL); // go into processing mode
@@ -306,6 +342,14 @@ public class AVSAppKeyphrase extends AVSAppBase implements RecordingStateListene
         controller.stopRecording();
 		System.out.println("Stopped recording at: " + (new Date()).toString());
     }
+    
+    private void cancelRecording(long endSampleIndex)
+    {
+        actionButton.setText(PROCESSING_LABEL); // go into processing mode
+        actionButton.setEnabled(false);
+        controller.stopRecording(endSampleIndex);
+		System.out.println("Stopped recording at: " + (new Date()).toString() + ", " + controller.getEndpointer().getStats());
+    }
 
 	@Override
 	public boolean handleEndRecording() 
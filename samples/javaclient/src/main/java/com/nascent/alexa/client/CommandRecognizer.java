@@ -0,0 +1,218 @@
+package com.nascent.alexa.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import com.amazon.alexa.avs.AudioRing;
+import com.amazon.alexa.avs.LocalCommand;
+import com.amazon.alexa.avs.VoiceActivityDetector;
+
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+
+//com.nascent.alexa.client.CommandRecognizer
+//-------------------------------------------
+//recognizes a few transport and volume commands on the device, so they can be acted on without
+//waiting for the cloud
+//
+// the commands are a small jsgf grammar searched by the keyword decoder, which is idle while a
+// request is being recorded. only the first thing said after the wake word is considered, and
+// only if it is short. a jsgf search always finds the closest path through the grammar, so the
+// grammar also has a loop of filler words that start most other requests, and speech closer to
+// those than to a command, like "what's" or "play jazz", is rejected rather than taken for the
+// nearest command. the command is decided as soon as a short silence follows it, and the time
+// from the end of the command to the decision is kept
+//
+// not thread safe, one thread recognizes at a time
+public class CommandRecognizer
+{
+    // silence after the command that ends it, short so the command is acted on quickly
+    private static final int END_SILENCE_MS = 150;
+    // speech longer than this isn't a command
+    private static final int MAX_COMMAND_MS = 1500;
+
+    private static final Map<String, LocalCommand> PHRASES;
+    static
+    {
+        Map<String, LocalCommand> phrases = new LinkedHashMap<>();
+        phrases.put("stop", LocalCommand.STOP);
+        phrases.put("cancel", LocalCommand.STOP);
+        phrases.put("be quiet", LocalCommand.STOP);
+        phrases.put("shut up", LocalCommand.STOP);
+        phrases.put("pause", LocalCommand.PAUSE);
+        phrases.put("volume up", LocalCommand.VOLUME_UP);
+        phrases.put("turn it up", LocalCommand.VOLUME_UP);
+        phrases.put("louder", LocalCommand.VOLUME_UP);
+        phrases.put("volume down", LocalCommand.VOLUME_DOWN);
+        phrases.put("turn it down", LocalCommand.VOLUME_DOWN);
+        phrases.put("quieter", LocalCommand.VOLUME_DOWN);
+        phrases.put("softer", LocalCommand.VOLUME_DOWN);
+        PHRASES = Collections.unmodifiableMap(phrases);
+    }
+
+    // words that start requests which aren't commands, and hesitations. all in the dictionary
+    private static final String[] FILLERS = {
+        "what", "what's", "where", "when", "who", "why", "how", "is", "are", "the", "a", "to",
+        "play", "set", "tell", "me", "my", "turn", "on", "off", "weather", "time", "timer",
+        "alarm", "music", "news", "add", "call", "open", "ask", "can", "you", "i", "it's",
+        "today", "song", "start", "show", "find", "remind", "give", "please", "uh", "um", "hmm"
+    };
+
+    private final Decoder m_decoder;
+    private final String m_searchName;
+    private final short[] m_frame;
+    private final float m_sampleRate;
+    private final VoiceActivityDetector m_vad;
+    private final int m_endSilenceSamples;
+
+    private String m_lastPhrase = null;
+    private double m_lastDecisionLatencyMs = 0;
+    private long m_recognized = 0;
+    private long m_rejected = 0;
+
+    // adds the grammar to the decoder as a search with the given name, without activating it
+    public CommandRecognizer(Decoder decoder, String searchName, int frameSamples, float sampleRate)
+    {
+        m_decoder = decoder;
+        m_searchName = searchName;
+        m_frame = new short[frameSamples];
+        m_sampleRate = sampleRate;
+        int endSilenceFrames =
+                (int) ((END_SILENCE_MS * (long) sampleRate) / (1000L * frameSamples));
+        m_vad = new VoiceActivityDetector(frameSamples, endSilenceFrames);
+        m_endSilenceSamples = endSilenceFrames * frameSamples;
+        m_decoder.setJsgfString(searchName, grammar());
+    }
+
+    public static String grammar()
+    {
+        StringBuilder grammar = new StringBuilder("#JSGF V1.0;\ngrammar commands;\n"
+                + "public <utterance> = <command> | <filler>+;\n<command> = ");
+        appendAlternatives(grammar, PHRASES.keySet().toArray(new String[0]));
+        grammar.append("<filler> = ");
+        appendAlternatives(grammar, FILLERS);
+        return grammar.toString();
+    }
+
+    private static void appendAlternatives(StringBuilder grammar, String[] alternatives)
+    {
+        String separator = "";
+        for (String alternative : alternatives)
+        {
+            grammar.append(separator).append(alternative);
+            separator = " | ";
+        }
+        grammar.append(";\n");
+    }
+
+    // decodes the cursor with the command grammar until the first speech in it ends, at most
+    // maxSamples are read or stop returns true. returns the command said, or null if the speech
+    // wasn't a command or there was none. restores the search that was active before
+    public LocalCommand recognize(AudioRing.Cursor cursor, long maxSamples, BooleanSupplier stop)
+    {
+        long maxSpeechSamples = (long) ((MAX_COMMAND_MS * m_sampleRate) / 1000);
+        long samplesRead = 0;
+        long speechSamples = 0;
+        String previousSearch = m_decoder.getSearch();
+
+        m_vad.reset(false);
+        m_decoder.setSearch(m_searchName);
+        m_decoder.startUtt();
+        try
+        {
+            while ((samplesRead < maxSamples) && !stop.getAsBoolean())
+            {
+                int filled = fillFrame(cursor);
+                if (filled <= 0)
+                {
+                    break;
+                }
+                samplesRead += filled;
+                m_decoder.processRaw(m_frame, filled, false, false);
+                m_vad.process(m_frame, 0, filled);
+
+                if (m_vad.isSpeech())
+                {
+                    speechSamples += filled;
+                    if (speechSamples > maxSpeechSamples)
+                    {
+                        reject("speech longer than " + MAX_COMMAND_MS + " ms");
+                        return null;
+                    }
+                }
+                else if (speechSamples > 0)
+                {
+                    // it ended when the silence began, and more may have been captured since
+                    long sinceEnd = m_endSilenceSamples + (cursor.available() / 2);
+                    m_lastDecisionLatencyMs = (sinceEnd * 1000.0) / m_sampleRate;
+                    return decide();
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            m_decoder.endUtt();
+            if (previousSearch != null)
+            {
+                m_decoder.setSearch(previousSearch);
+            }
+        }
+    }
+
+    // the phrase heard the last time a command was recognized
+    public String getLastPhrase()
+    {
+        return m_lastPhrase;
+    }
+
+    // how long after the end of the last command it was recognized, counting audio that was
+    // captured but not yet decoded at the time, in ms
+    public double getLastDecisionLatencyMs()
+    {
+        return m_lastDecisionLatencyMs;
+    }
+
+    public String getStats()
+    {
+        return String.format("%d commands recognized, %d rejected, last \"%s\" %.0f ms after it "
+                + "ended", m_recognized, m_rejected, m_lastPhrase, m_lastDecisionLatencyMs);
+    }
+
+    private LocalCommand decide()
+    {
+        Hypothesis hypothesis = m_decoder.hyp();
+        String phrase = (hypothesis == null) ? "" : hypothesis.getHypstr().trim();
+        // anything but exactly a command, e.g. filler or a command run into filler
+        LocalCommand command = PHRASES.get(phrase);
+        if (command == null)
+        {
+            reject("heard \"" + phrase + "\"");
+            return null;
+        }
+        m_recognized++;
+        m_lastPhrase = phrase;
+        return command;
+    }
+
+    private void reject(String reason)
+    {
+        m_rejected++;
+        System.out.println("NOT A LOCAL COMMAND, " + reason + ": " + getStats());
+    }
+
+    // fills the frame with whole samples, less than a frame only at the end of the stream
+    private int fillFrame(AudioRing.Cursor cursor)
+    {
+        int filled = 0;
+        int read;
+        while ((filled < m_frame.length)
+                && ((read = cursor.readSamples(m_frame, filled, m_frame.length - filled)) > 0))
+        {
+            filled += read;
+        }
+        return filled;
+    }
+}
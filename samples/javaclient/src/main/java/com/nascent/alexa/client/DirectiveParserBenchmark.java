@@ -0,0 +1,167 @@
+package com.nascent.alexa.client;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectReader;
+
+import com.amazon.alexa.avs.config.ObjectMapperFactory;
+import com.amazon.alexa.avs.message.DialogRequestIdHeader;
+import com.amazon.alexa.avs.message.Message;
+import com.amazon.alexa.avs.message.Payload;
+import com.amazon.alexa.avs.message.response.AlexaExceptionResponse;
+import com.amazon.alexa.avs.message.response.Directive;
+import com.amazon.alexa.avs.message.response.ResponseBody;
+import com.amazon.alexa.avs.message.response.audioplayer.Play;
+
+//com.nascent.alexa.client.DirectiveParserBenchmark
+//-------------------------------------------------
+// measures CPU time and allocation per directive for an AudioPlayer.Play directive:
+//   two-pass    - what MessageParser and Message did before: parse to Object and pretty print
+//                 it for the log, parse again to a tree, Class.forName the payload type, bind the
+//                 payload from the tree and keep the tree's text as the raw message
+//   single-pass - ResponseBody read straight from the bytes, payload type from PayloadRegistry,
+//                 raw message left undecoded
+//
+// checks first that the single pass decodes the directives the client gets the same way
+//
+// usage: DirectiveParserBenchmark [directives]
+public class DirectiveParserBenchmark
+{
+    private static final String HEADER = "{\"namespace\":\"AudioPlayer\",\"name\":\"Play\","
+            + "\"messageId\":\"2f1a7c43-8b0e-4f2c-9d4a-b1e0a5c6d7e8\","
+            + "\"dialogRequestId\":\"9a8b7c6d-5e4f-3a2b-1c0d-e9f8a7b6c5d4\"}";
+    private static final String PAYLOAD = "{\"playBehavior\":\"REPLACE_ALL\",\"audioItem\":{"
+            + "\"audioItemId\":\"amzn1.as-tt.v1.ThirdPartySdkSpeechlet#ACRI#example\","
+            + "\"stream\":{\"url\":\"https://example.com/stream/episode-1.mp3\","
+            + "\"streamFormat\":\"AUDIO_MPEG\",\"offsetInMilliseconds\":0,"
+            + "\"expiryTime\":\"2016-08-10T12:00:00+0000\",\"token\":\"token-1\","
+            + "\"progressReport\":{\"progressReportDelayInMilliseconds\":0,"
+            + "\"progressReportIntervalInMilliseconds\":15000}}}}";
+
+    public static void main(String[] args) throws Exception
+    {
+        int directives = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        byte[] play = utf8("{\"directive\":{\"header\":" + HEADER + ",\"payload\":" + PAYLOAD + "}}");
+
+        check(play);
+
+        // warm up
+        run(play, false, directives / 2);
+        run(play, true, directives / 2);
+
+        System.out.println(directives + " Play directives of " + play.length + " bytes");
+        report("two-pass", run(play, false, directives), directives);
+        report("single-pass", run(play, true, directives), directives);
+    }
+
+    private static void check(byte[] play) throws Exception
+    {
+        ObjectReader responseReader = ObjectMapperFactory.getObjectReader(ResponseBody.class);
+
+        Directive directive = responseReader.<ResponseBody> readValue(play).getDirective();
+        String raw = "{\"header\":" + HEADER + ",\"payload\":" + PAYLOAD + "}";
+        expect(directive.getPayload() instanceof Play, "Play payload");
+        expect(((Play) directive.getPayload()).getAudioItem().getStream().getOffsetInMilliseconds() == 0,
+                "Play stream");
+        expect(directive.getDialogRequestId().startsWith("9a8b"), "dialogRequestId");
+        expect(raw.equals(directive.getRawMessage()), "raw message");
+
+        // payload before the header
+        directive = responseReader.<ResponseBody> readValue(
+                utf8("{\"directive\":{\"payload\":" + PAYLOAD + ",\"header\":" + HEADER + "}}"))
+                .getDirective();
+        expect(directive.getPayload() instanceof Play, "Play payload before header");
+
+        // no payload type
+        directive = responseReader.<ResponseBody> readValue(utf8("{\"directive\":{\"header\":"
+                + "{\"namespace\":\"SpeechRecognizer\",\"name\":\"ExpectSpeech\",\"messageId\":\"m\"},"
+                + "\"payload\":{\"timeoutInMilliseconds\":8000}}}")).getDirective();
+        expect(directive.getPayload().getClass() == Payload.class, "empty payload");
+
+        // System.Exception
+        Message message = ObjectMapperFactory.getObjectReader(Message.class).readValue(
+                utf8("{\"header\":{\"namespace\":\"System\",\"name\":\"Exception\",\"messageId\":"
+                        + "\"m\"},\"payload\":{\"code\":\"UNAUTHORIZED_REQUEST_EXCEPTION\","
+                        + "\"description\":\"Unable to authenticate the request.\"}}"));
+        expect(message instanceof AlexaExceptionResponse, "exception response");
+
+        // not parsed from bytes
+        directive = ObjectMapperFactory.getObjectReader(ResponseBody.class)
+                .<ResponseBody> readValue(new String(play, StandardCharsets.UTF_8)).getDirective();
+        expect(raw.equals(directive.getRawMessage()), "raw message from text");
+
+        System.out.println("Decoding checks passed");
+    }
+
+    private static void expect(boolean condition, String what)
+    {
+        if (!condition)
+        {
+            throw new IllegalStateException("Decoding check failed: " + what);
+        }
+    }
+
+    private static void report(String name, long[] result, int directives)
+    {
+        System.out.printf("%-12s %8.2f us/directive, %8d bytes allocated per directive%n", name,
+                result[0] / 1000.0 / directives, result[1] / directives);
+    }
+
+    // returns {elapsed nanoseconds, bytes allocated}
+    private static long[] run(byte[] bytes, boolean singlePass, int directives) throws Exception
+    {
+        ObjectReader reader = ObjectMapperFactory.getObjectReader();
+        ObjectReader responseReader = ObjectMapperFactory.getObjectReader(ResponseBody.class);
+        ObjectReader headerReader = ObjectMapperFactory.getObjectReader(DialogRequestIdHeader.class);
+        long checksum = 0;
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < directives; i++)
+        {
+            if (singlePass)
+            {
+                ResponseBody body = responseReader.readValue(bytes);
+                // what the INFO log line costs now
+                checksum += new String(bytes, StandardCharsets.UTF_8).length();
+                checksum += body.getDirective().getName().length();
+            }
+            else
+            {
+                Object logBody = reader.withType(Object.class).readValue(bytes);
+                checksum += ObjectMapperFactory.getObjectWriter().withDefaultPrettyPrinter()
+                        .writeValueAsString(logBody).length();
+
+                JsonNode directive = reader.withType(JsonNode.class).<JsonNode> readValue(bytes)
+                        .get("directive");
+                String rawMessage = directive.toString();
+                DialogRequestIdHeader header = headerReader.readValue(directive.get("header"));
+                Class<?> type = Class.forName(Message.class.getPackage().getName() + ".response."
+                        + header.getNamespace().toLowerCase() + "." + header.getName());
+                Payload payload = (Payload) reader.withType(type).readValue(directive.get("payload"));
+                checksum += rawMessage.length() + payload.hashCode();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        if (checksum == Long.MIN_VALUE)
+        {
+            System.out.println(checksum);
+        }
+        return new long[] { elapsed, allocated };
+    }
+
+    private static long getAllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static byte[] utf8(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,166 @@
+package com.nascent.alexa.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.cmu.pocketsphinx.Decoder;
+
+//com.nascent.alexa.client.KeywordList
+//-------------------------------------
+//the keywords to spot, each with its own threshold and the action to take when it's heard
+//
+// the file has one keyword per line, a phrase, its pocketsphinx kws threshold between slashes and
+// an action. lines starting with # are ignored
+//
+//   alexa /1e-5/ recognize
+//   stop /1e-2/ stop
+//
+// all the keywords are searched for in one pass of one decoder, as a pocketsphinx keyword list
+// search, and the phrase the decoder reports is mapped back to its action
+public class KeywordList
+{
+    public enum Action
+    {
+        RECOGNIZE,  // start a request to alexa
+        STOP        // stop whatever alexa is playing, locally
+    }
+
+    public static class Keyword
+    {
+        private final String m_phrase;
+        private final String m_threshold;
+        private final Action m_action;
+
+        Keyword(String phrase, String threshold, Action action)
+        {
+            m_phrase = phrase;
+            m_threshold = threshold;
+            m_action = action;
+        }
+
+        public String getPhrase()
+        {
+            return m_phrase;
+        }
+
+        public double getThreshold()
+        {
+            return Double.parseDouble(m_threshold);
+        }
+
+        public Action getAction()
+        {
+            return m_action;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_phrase + " /" + m_threshold + "/ " + m_action.name().toLowerCase(Locale.US);
+        }
+    }
+
+    private static final Pattern LINE = Pattern.compile("(.+?)\\s*/([^/]+)/\\s*(\\S+)");
+
+    private final List<Keyword> m_keywords;
+
+    private KeywordList(List<Keyword> keywords)
+    {
+        m_keywords = Collections.unmodifiableList(keywords);
+    }
+
+    public static KeywordList load(File file) throws IOException
+    {
+        List<Keyword> keywords = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+        {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+            {
+                continue;
+            }
+
+            Matcher matcher = LINE.matcher(trimmed);
+            if (!matcher.matches())
+            {
+                throw new IOException(file + ":" + lineNumber
+                        + ": expected \"phrase /threshold/ action\" but got \"" + trimmed + "\"");
+            }
+            String threshold = matcher.group(2).trim();
+            Action action;
+            try
+            {
+                Double.parseDouble(threshold);
+                action = Action.valueOf(matcher.group(3).toUpperCase(Locale.US));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IOException(file + ":" + lineNumber + ": bad threshold or action in \""
+                        + trimmed + "\"", e);
+            }
+            keywords.add(new Keyword(matcher.group(1).toLowerCase(Locale.US), threshold, action));
+        }
+
+        if (keywords.isEmpty())
+        {
+            throw new IOException(file + " has no keywords");
+        }
+        return new KeywordList(keywords);
+    }
+
+    public List<Keyword> getKeywords()
+    {
+        return m_keywords;
+    }
+
+    // adds the keywords to the decoder as a keyword list search with the given name and makes it
+    // the active search
+    public void apply(Decoder decoder, String searchName) throws IOException
+    {
+        // pocketsphinx reads the list from a file in its own format, without the actions
+        File kwsFile = File.createTempFile("keywords", ".kws");
+        kwsFile.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(kwsFile.toPath(),
+                StandardCharsets.UTF_8)))
+        {
+            for (Keyword keyword : m_keywords)
+            {
+                writer.println(keyword.m_phrase + " /" + keyword.m_threshold + "/");
+            }
+        }
+        decoder.setKws(searchName, kwsFile.getPath());
+        decoder.setSearch(searchName);
+    }
+
+    // the keyword for a phrase the decoder reported, or null if it isn't one of ours. the decoder
+    // reports every keyword heard in the utterance, so the last one is the one just heard
+    public Keyword find(String hypothesis)
+    {
+        if (hypothesis == null)
+        {
+            return null;
+        }
+        String heard = hypothesis.trim().toLowerCase(Locale.US);
+        Keyword found = null;
+        for (Keyword keyword : m_keywords)
+        {
+            if ((heard.equals(keyword.m_phrase) || heard.endsWith(" " + keyword.m_phrase))
+                    && ((found == null) || (keyword.m_phrase.length() > found.m_phrase.length())))
+            {
+                found = keyword;
+            }
+        }
+        return found;
+    }
+}
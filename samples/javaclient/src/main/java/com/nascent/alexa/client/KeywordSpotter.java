@@ -0,0 +1,368 @@
+package com.nascent.alexa.client;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.BooleanSupplier;
+
+import com.amazon.alexa.avs.AudioRing;
+import com.amazon.alexa.avs.VoiceActivityDetector;
+
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+import edu.cmu.pocketsphinx.Segment;
+
+//com.nascent.alexa.client.KeywordSpotter
+//---------------------------------------
+//feeds a pocketsphinx keyword search from a capture cursor in small fixed frames
+//
+// samples are converted from the capture ring straight into preallocated frames, which are
+// handed to the decoder whole, and the hypothesis is only looked at on frame boundaries, so the
+// detection latency is at most a frame plus the decoder's own lookahead and nothing is allocated
+// per frame. the cpu time of each frame and the latency of the last detection are kept. whatever
+// search the decoder has active is used, so a keyword list spots all its keywords in one pass and
+// the phrase that was heard is kept
+//
+// with a gate set the decoder sleeps until a voice activity detector hears speech, which costs a
+// fraction of decoding. the frames heard while asleep are kept as lookback, and on waking the
+// decoder is primed with them so the start of the keyword isn't lost. it goes back to sleep
+// after the gate's hangover of silence. the cpu used asleep and awake is kept separately
+//
+// not thread safe, one thread spots at a time
+public class KeywordSpotter
+{
+    // pocketsphinx computes a feature frame every 10 ms by default (-frate 100)
+    private static final int DECODER_FRAMES_PER_SECOND = 100;
+
+    private final Decoder m_decoder;
+    private final int m_frameSamples;
+    private final float m_sampleRate;
+    private final ThreadMXBean m_threads = ManagementFactory.getThreadMXBean();
+
+    // the most recent frames, the one being read and the lookback before it
+    private short[][] m_frames;
+    private int m_nextFrame = 0;
+    private int m_bufferedFrames = 0;
+    private VoiceActivityDetector m_gate = null;
+
+    private boolean m_awake = false;
+    private long m_uttStartSample = 0;
+    private long m_decodedSample = 0;
+    private long m_stateCpuStart = 0;
+
+    private long m_framesAwake = 0;
+    private long m_framesAsleep = 0;
+    private long m_framesDecoded = 0;
+    private long m_wakeups = 0;
+    private long m_awakeCpuNanos = 0;
+    private long m_asleepCpuNanos = 0;
+    private long m_decodeCpuNanos = 0;
+    private long m_maxFrameCpuNanos = 0;
+    private long m_totalDecodeNanos = 0;
+    private long m_detections = 0;
+    private long m_keywordEndSampleIndex = -1;
+    private String m_detectedKeyword = null;
+    private double m_lastDetectionLatencyMs = 0;
+
+    // frameSamples is how much audio is fed to the decoder at a time, e.g. 160 for 10 ms at 16 kHz
+    public KeywordSpotter(Decoder decoder, int frameSamples, float sampleRate)
+    {
+        m_decoder = decoder;
+        m_frameSamples = frameSamples;
+        m_sampleRate = sampleRate;
+        m_frames = new short[1][frameSamples];
+    }
+
+    // only decode while there is speech, priming the decoder with up to lookbackMs of the audio
+    // before it was heard, and stop decoding after hangoverMs without speech
+    public void setGate(int lookbackMs, int hangoverMs)
+    {
+        m_frames = new short[msToFrames(lookbackMs) + 1][m_frameSamples];
+        m_gate = new VoiceActivityDetector(m_frameSamples, Math.max(1, msToFrames(hangoverMs)));
+    }
+
+    public boolean isGated()
+    {
+        return m_gate != null;
+    }
+
+    // decodes the cursor frame by frame until the keyword is heard, stop returns true or the
+    // cursor ends. returns the sample index just after the frame that completed the keyword,
+    // or -1 if it wasn't heard. each call starts a new decoder utterance
+    public long spot(AudioRing.Cursor cursor, BooleanSupplier stop)
+    {
+        m_nextFrame = 0;
+        m_bufferedFrames = 0;
+        m_awake = false;
+        m_detectedKeyword = null;
+        m_stateCpuStart = threadCpuTime();
+        if (m_gate != null)
+        {
+            m_gate.reset(false);
+        }
+        else
+        {
+            startUtt(cursor.getPosition() / 2);
+        }
+
+        try
+        {
+            while (!stop.getAsBoolean())
+            {
+                short[] frame = m_frames[m_nextFrame];
+                int filled = fillFrame(cursor, frame);
+                if (filled <= 0)
+                {
+                    return -1;
+                }
+                m_nextFrame = (m_nextFrame + 1) % m_frames.length;
+                m_bufferedFrames = Math.min(m_bufferedFrames + 1, m_frames.length);
+
+                long wallStart = System.nanoTime();
+                boolean detected;
+                if (m_gate != null)
+                {
+                    m_gate.process(frame, 0, filled);
+                }
+                if (m_awake)
+                {
+                    m_framesAwake++;
+                    detected = decode(frame, filled);
+                    if (!detected && (m_gate != null) && !m_gate.isSpeech())
+                    {
+                        sleep();
+                    }
+                }
+                else
+                {
+                    m_framesAsleep++;
+                    detected = m_gate.isSpeech() && wake(cursor, filled);
+                }
+                m_totalDecodeNanos += System.nanoTime() - wallStart;
+
+                if (detected)
+                {
+                    onDetected(cursor);
+                    return m_decodedSample;
+                }
+            }
+            return -1;
+        }
+        finally
+        {
+            if (m_awake)
+            {
+                sleep();
+            }
+            else
+            {
+                m_asleepCpuNanos += threadCpuTime() - m_stateCpuStart;
+            }
+        }
+    }
+
+    // the phrase the decoder reported for the last detection, null if the last spot heard nothing
+    public String getDetectedKeyword()
+    {
+        return m_detectedKeyword;
+    }
+
+    // the sample index at which the last detected keyword ended in the audio
+    public long getKeywordEndSampleIndex()
+    {
+        return m_keywordEndSampleIndex;
+    }
+
+    // how far behind the audio being captured the last detection was reported, counted from the
+    // end of the keyword, in ms
+    public double getLastDetectionLatencyMs()
+    {
+        return m_lastDetectionLatencyMs;
+    }
+
+    public long getDetections()
+    {
+        return m_detections;
+    }
+
+    // frames read from the capture, awake or asleep
+    public long getFramesProcessed()
+    {
+        return m_framesAwake + m_framesAsleep;
+    }
+
+    // frames given to the decoder, including lookback replayed on waking
+    public long getFramesDecoded()
+    {
+        return m_framesDecoded;
+    }
+
+    public long getWakeups()
+    {
+        return m_wakeups;
+    }
+
+    // the share of the audio during which the decoder was awake, 1 without a gate
+    public double getAwakeFraction()
+    {
+        long frames = getFramesProcessed();
+        return (frames == 0) ? 0 : (double) m_framesAwake / frames;
+    }
+
+    // cpu time spent per second of audio while the decoder slept, in ms
+    public double getIdleCpuMillisPerSecond()
+    {
+        return cpuMillisPerSecond(m_asleepCpuNanos, m_framesAsleep);
+    }
+
+    // cpu time spent per second of audio while the decoder was awake, in ms
+    public double getAwakeCpuMillisPerSecond()
+    {
+        return cpuMillisPerSecond(m_awakeCpuNanos, m_framesAwake);
+    }
+
+    public double getAverageFrameCpuMicros()
+    {
+        return (m_framesDecoded == 0) ? 0 : (m_decodeCpuNanos / 1e3) / m_framesDecoded;
+    }
+
+    public double getMaxFrameCpuMicros()
+    {
+        return m_maxFrameCpuNanos / 1e3;
+    }
+
+    public long getIdleCpuNanos()
+    {
+        return m_asleepCpuNanos;
+    }
+
+    public long getTotalCpuNanos()
+    {
+        return m_awakeCpuNanos + m_asleepCpuNanos;
+    }
+
+    public long getTotalDecodeNanos()
+    {
+        return m_totalDecodeNanos;
+    }
+
+    public String getStats()
+    {
+        String stats = String.format("%d frames of %d samples, cpu %.1f us/frame avg %.1f us max, "
+                + "%d detections, last %.0f ms after the keyword ended", getFramesProcessed(),
+                m_frameSamples, getAverageFrameCpuMicros(), getMaxFrameCpuMicros(), m_detections,
+                m_lastDetectionLatencyMs);
+        if (m_gate != null)
+        {
+            stats += String.format(", awake %.1f%% of the time in %d wakeups, cpu %.1f ms/s "
+                    + "asleep %.1f ms/s awake", 100 * getAwakeFraction(), m_wakeups,
+                    getIdleCpuMillisPerSecond(), getAwakeCpuMillisPerSecond());
+        }
+        return stats;
+    }
+
+    // fills the frame with whole samples, less than a frame only at the end of the stream
+    private int fillFrame(AudioRing.Cursor cursor, short[] frame)
+    {
+        int filled = 0;
+        int read;
+        while ((filled < frame.length)
+                && ((read = cursor.readSamples(frame, filled, frame.length - filled)) > 0))
+        {
+            filled += read;
+        }
+        return filled;
+    }
+
+    private void startUtt(long sampleIndex)
+    {
+        m_uttStartSample = sampleIndex;
+        m_decodedSample = sampleIndex;
+        m_decoder.startUtt();
+        m_awake = true;
+    }
+
+    // starts an utterance at the oldest buffered frame and decodes the lookback up to the frame
+    // just read, which holds newestFilled samples
+    private boolean wake(AudioRing.Cursor cursor, int newestFilled)
+    {
+        long now = threadCpuTime();
+        m_asleepCpuNanos += now - m_stateCpuStart;
+        m_stateCpuStart = now;
+        m_wakeups++;
+
+        int buffered = m_bufferedFrames;
+        startUtt(cursor.getPosition() / 2 - ((buffered - 1L) * m_frameSamples) - newestFilled);
+        int oldest = (m_nextFrame - buffered + m_frames.length) % m_frames.length;
+        for (int i = 0; i < buffered; i++)
+        {
+            short[] frame = m_frames[(oldest + i) % m_frames.length];
+            if (decode(frame, (i == (buffered - 1)) ? newestFilled : m_frameSamples))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sleep()
+    {
+        m_decoder.endUtt();
+        m_awake = false;
+        long now = threadCpuTime();
+        m_awakeCpuNanos += now - m_stateCpuStart;
+        m_stateCpuStart = now;
+    }
+
+    private boolean decode(short[] frame, int samples)
+    {
+        long cpuStart = threadCpuTime();
+        m_decoder.processRaw(frame, samples, false, false);
+        Hypothesis hypothesis = m_decoder.hyp();
+        long cpu = threadCpuTime() - cpuStart;
+        m_decodeCpuNanos += cpu;
+        m_maxFrameCpuNanos = Math.max(m_maxFrameCpuNanos, cpu);
+        m_framesDecoded++;
+        m_decodedSample += samples;
+        if (hypothesis == null)
+        {
+            return false;
+        }
+        m_detectedKeyword = hypothesis.getHypstr();
+        return true;
+    }
+
+    private void onDetected(AudioRing.Cursor cursor)
+    {
+        m_detections++;
+
+        // the keyword's segment ends at the decoder frame where the keyword was completed
+        long keywordEnd = m_decodedSample;
+        for (Segment segment : m_decoder.seg())
+        {
+            keywordEnd = m_uttStartSample + (((segment.getEndFrame() + 1L) * (long) m_sampleRate)
+                    / DECODER_FRAMES_PER_SECOND);
+        }
+        m_keywordEndSampleIndex = Math.min(keywordEnd, m_decodedSample);
+
+        // anything captured after the detection frame is time the decoder was behind the mic
+        long captured = cursor.getPosition() / 2 + cursor.available() / 2;
+        m_lastDetectionLatencyMs = ((captured - m_keywordEndSampleIndex) * 1000.0) / m_sampleRate;
+    }
+
+    private int msToFrames(int ms)
+    {
+        return (int) ((ms * (long) m_sampleRate) / (1000L * m_frameSamples));
+    }
+
+    private double cpuMillisPerSecond(long cpuNanos, long frames)
+    {
+        double seconds = (frames * (double) m_frameSamples) / m_sampleRate;
+        return (seconds == 0) ? 0 : (cpuNanos / 1e6) / seconds;
+    }
+
+    private long threadCpuTime()
+    {
+        return m_threads.isCurrentThreadCpuTimeSupported()
+                ? m_threads.getCurrentThreadCpuTime() : 0;
+    }
+}
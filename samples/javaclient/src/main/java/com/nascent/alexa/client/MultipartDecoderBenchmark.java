@@ -0,0 +1,509 @@
+package com.nascent.alexa.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.fileupload.MultipartStream;
+
+import com.amazon.alexa.avs.http.MultipartDecoder;
+import com.amazon.alexa.avs.http.MultipartDecoder.PartHandler;
+import com.amazon.alexa.avs.http.MultipartDecoder.PartHeaders;
+
+//com.nascent.alexa.client.MultipartDecoderBenchmark
+//--------------------------------------------------
+// compares MultipartDecoder against the commons-fileupload MultipartStream it replaced:
+//   1. regression - every response in the corpus must decode to the same parts with both parsers,
+//      with the decoder fed in chunks of random sizes (down to 1 byte) so boundaries straddle
+//      chunk edges; then the same for randomly generated responses whose bodies are full of
+//      boundary fragments
+//   2. benchmark  - throughput and bytes allocated per response, for a Speak response with a
+//      32 KB attachment delivered in 16 KB HTTP/2 DATA frames
+//
+// the built-in corpus is modelled on AVS responses; recorded response bodies can be added by
+// passing their files, the boundary is taken from the first line of each
+//
+// usage: MultipartDecoderBenchmark [response files...]
+public class MultipartDecoderBenchmark
+{
+    private static final String BOUNDARY = "------abcde123";
+    private static final int FRAME_SIZE = 16 * 1024;
+    private static final int FUZZ_ROUNDS = 200;
+    private static final int BENCHMARK_RESPONSES = 20000;
+
+    private static final String SPEAK_JSON = "{\"directive\":{\"header\":{\"namespace\":"
+            + "\"SpeechSynthesizer\",\"name\":\"Speak\",\"messageId\":\"b5b3f3e1-3d4e-4b42-a8a6"
+            + "\",\"dialogRequestId\":\"dialog-1\"},\"payload\":{\"url\":\"cid:DeviceTTSRenderer_"
+            + "1234\",\"format\":\"AUDIO_MPEG\",\"token\":\"amzn1.as-ct.v1.#1234\"}}}";
+    private static final String SET_MUTE_JSON = "{\"directive\":{\"header\":{\"namespace\":"
+            + "\"Speaker\",\"name\":\"SetMute\",\"messageId\":\"7d1c\"},\"payload\":{\"mute\":false}}}";
+
+    private static class Part
+    {
+        final String contentType;
+        final String contentId;
+        final byte[] body;
+
+        Part(String contentType, String contentId, byte[] body)
+        {
+            this.contentType = contentType;
+            this.contentId = contentId;
+            this.body = body;
+        }
+
+        boolean sameAs(Part other)
+        {
+            return equal(contentType, other.contentType) && equal(contentId, other.contentId)
+                    && Arrays.equals(body, other.body);
+        }
+
+        private static boolean equal(String a, String b)
+        {
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+    }
+
+    private static class Response
+    {
+        final String name;
+        final String boundary;
+        final byte[] body;
+
+        Response(String name, String boundary, byte[] body)
+        {
+            this.name = name;
+            this.boundary = boundary;
+            this.body = body;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<Response> corpus = buildCorpus();
+        for (String file : args)
+        {
+            byte[] body = Files.readAllBytes(Paths.get(file));
+            String firstLine = new String(body, 0, indexOfCRLF(body), StandardCharsets.US_ASCII);
+            corpus.add(new Response(file, firstLine.trim().substring(2), body));
+        }
+
+        Random random = new Random(42);
+        int failures = 0;
+        for (Response response : corpus)
+        {
+            failures += check(response, random) ? 0 : 1;
+        }
+        for (int i = 0; i < FUZZ_ROUNDS; i++)
+        {
+            failures += check(randomResponse(random, i), random) ? 0 : 1;
+        }
+        System.out.println("Regression: " + (corpus.size() + FUZZ_ROUNDS) + " responses, "
+                + failures + " failures");
+
+        Response speak = corpus.get(0);
+        // warm up
+        benchmark(speak, false, BENCHMARK_RESPONSES / 4);
+        benchmark(speak, true, BENCHMARK_RESPONSES / 4);
+
+        System.out.println(BENCHMARK_RESPONSES + " responses of " + speak.body.length + " bytes");
+        report("MultipartStream", benchmark(speak, false, BENCHMARK_RESPONSES), speak);
+        report("MultipartDecoder", benchmark(speak, true, BENCHMARK_RESPONSES), speak);
+    }
+
+    private static boolean check(Response response, Random random) throws IOException
+    {
+        List<Part> expected = parseWithMultipartStream(response);
+        for (int round = 0; round < 5; round++)
+        {
+            int maxChunk = (round == 0) ? 1 : 1 + random.nextInt(2 * response.boundary.length() + 64);
+            List<Part> actual = parseWithDecoder(response, random, maxChunk);
+            if (actual.size() != expected.size())
+            {
+                System.out.println("FAIL " + response.name + ": " + actual.size() + " parts, expected "
+                        + expected.size() + " (chunks up to " + maxChunk + " bytes)");
+                return false;
+            }
+            for (int i = 0; i < expected.size(); i++)
+            {
+                if (!expected.get(i).sameAs(actual.get(i)))
+                {
+                    System.out.println("FAIL " + response.name + ": part " + i + " differs (chunks up to "
+                            + maxChunk + " bytes)");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<Part> parseWithMultipartStream(Response response) throws IOException
+    {
+        List<Part> parts = new ArrayList<>();
+        MultipartStream stream = new MultipartStream(new ByteArrayInputStream(response.body),
+                response.boundary.getBytes(StandardCharsets.US_ASCII), 512, null);
+        boolean hasNextPart = stream.skipPreamble();
+        while (hasNextPart)
+        {
+            String headers = stream.readHeaders();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            stream.readBodyData(body);
+            parts.add(new Part(header(headers, "content-type"), header(headers, "content-id"),
+                    body.toByteArray()));
+            hasNextPart = stream.readBoundary();
+        }
+        return parts;
+    }
+
+    private static String header(String headers, String name)
+    {
+        for (String line : headers.split("\r\n"))
+        {
+            int colon = line.indexOf(':');
+            if ((colon != -1) && line.substring(0, colon).trim().equalsIgnoreCase(name))
+            {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static List<Part> parseWithDecoder(Response response, Random random, int maxChunk)
+            throws IOException
+    {
+        List<Part> parts = new ArrayList<>();
+        MultipartDecoder decoder = new MultipartDecoder(new PartHandler()
+        {
+            private PartHeaders headers;
+            private ByteArrayOutputStream body;
+
+            public void onPartBegin(PartHeaders headers)
+            {
+                this.headers = headers;
+                body = new ByteArrayOutputStream();
+            }
+
+            public void onPartData(ByteBuffer data)
+            {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                body.write(bytes, 0, bytes.length);
+            }
+
+            public void onPartEnd()
+            {
+                parts.add(new Part(headers.getContentType(), headers.getContentId(),
+                        body.toByteArray()));
+            }
+        });
+        decoder.reset(response.boundary);
+
+        // direct buffers, like the ones Jetty hands out
+        for (int offset = 0; offset < response.body.length;)
+        {
+            int length = Math.min(1 + random.nextInt(maxChunk), response.body.length - offset);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(length);
+            chunk.put(response.body, offset, length).flip();
+            decoder.feed(chunk);
+            offset += length;
+        }
+        decoder.finish();
+        return parts;
+    }
+
+    private static void report(String name, long[] result, Response response)
+    {
+        double seconds = result[0] / 1e9;
+        double megabytes = ((double) BENCHMARK_RESPONSES * response.body.length) / (1024 * 1024);
+        System.out.printf("%-18s %8.1f MB/s, %8d bytes allocated per response%n", name,
+                megabytes / seconds, result[1] / BENCHMARK_RESPONSES);
+    }
+
+    // returns {elapsed nanoseconds, bytes allocated}
+    private static long[] benchmark(Response response, boolean decoder, int responses)
+            throws IOException
+    {
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int offset = 0; offset < response.body.length; offset += FRAME_SIZE)
+        {
+            int length = Math.min(FRAME_SIZE, response.body.length - offset);
+            ByteBuffer frame = ByteBuffer.allocateDirect(length);
+            frame.put(response.body, offset, length).flip();
+            frames.add(frame);
+        }
+
+        // both consume the parts the way MultipartParser does: bodies are copied out once
+        byte[] sink = new byte[64 * 1024];
+        long[] checksum = new long[1];
+        MultipartDecoder multipartDecoder = new MultipartDecoder(new PartHandler()
+        {
+            public void onPartBegin(PartHeaders headers)
+            {
+                checksum[0] += headers.getContentType().length();
+            }
+
+            public void onPartData(ByteBuffer data)
+            {
+                int length = data.remaining();
+                data.get(sink, 0, length);
+                checksum[0] += sink[length - 1];
+            }
+
+            public void onPartEnd()
+            {
+            }
+        });
+        FrameInputStream input = new FrameInputStream(frames);
+        byte[] boundary = response.boundary.getBytes(StandardCharsets.US_ASCII);
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < responses; i++)
+        {
+            if (decoder)
+            {
+                multipartDecoder.reset(response.boundary);
+                for (ByteBuffer frame : frames)
+                {
+                    multipartDecoder.feed(frame.duplicate());
+                }
+                multipartDecoder.finish();
+            }
+            else
+            {
+                input.rewind();
+                MultipartStream stream = new MultipartStream(input, boundary, 512, null);
+                boolean hasNextPart = stream.skipPreamble();
+                while (hasNextPart)
+                {
+                    checksum[0] += stream.readHeaders().length();
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    stream.readBodyData(body);
+                    checksum[0] += body.size();
+                    hasNextPart = stream.readBoundary();
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        if (checksum[0] == Long.MIN_VALUE)
+        {
+            System.out.println(checksum[0]);
+        }
+        return new long[] { elapsed, allocated };
+    }
+
+    private static long getAllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // reads the frames like the response listener's stream does, one frame at a time
+    private static class FrameInputStream extends java.io.InputStream
+    {
+        private final List<ByteBuffer> frames;
+        private int index;
+        private ByteBuffer current;
+
+        FrameInputStream(List<ByteBuffer> frames)
+        {
+            this.frames = frames;
+        }
+
+        void rewind()
+        {
+            index = 0;
+            current = null;
+        }
+
+        @Override
+        public int read()
+        {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            while ((current == null) || !current.hasRemaining())
+            {
+                if (index == frames.size())
+                {
+                    return -1;
+                }
+                current = frames.get(index++).duplicate();
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+    }
+
+    private static List<Response> buildCorpus()
+    {
+        Random random = new Random(7);
+        List<Response> corpus = new ArrayList<>();
+
+        // Recognize response: Speak with its MP3
+        corpus.add(new Response("speak", BOUNDARY, new ResponseBuilder(BOUNDARY)
+                .json(SPEAK_JSON)
+                .attachment("DeviceTTSRenderer_1234", randomBytes(random, 32 * 1024))
+                .close()));
+
+        // several directives, attachments before and after their directive
+        corpus.add(new Response("multiple directives", BOUNDARY, new ResponseBuilder(BOUNDARY)
+                .json(SET_MUTE_JSON)
+                .attachment("DeviceTTSRenderer_1234", randomBytes(random, 9000))
+                .json(SPEAK_JSON)
+                .attachment("AudioPlayer_5678", randomBytes(random, 20000))
+                .close()));
+
+        // downchannel: a preamble and many small directives
+        ResponseBuilder downchannel = new ResponseBuilder(BOUNDARY).preamble("\r\n");
+        for (int i = 0; i < 50; i++)
+        {
+            downchannel.json(SET_MUTE_JSON);
+        }
+        corpus.add(new Response("downchannel", BOUNDARY, downchannel.close()));
+
+        // attachment content that looks like the boundary
+        String lookalikes = "\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "x\r\n-"
+                + "--" + BOUNDARY + "\r\r\n--\r\n" + BOUNDARY + "\r\n--" + BOUNDARY.substring(0, 3);
+        corpus.add(new Response("boundary lookalikes", BOUNDARY, new ResponseBuilder(BOUNDARY)
+                .json(SPEAK_JSON)
+                .attachment("DeviceTTSRenderer_1234", lookalikes.getBytes(StandardCharsets.US_ASCII))
+                .close()));
+
+        // an empty part, header names in another case (a part without any headers is left out,
+        // MultipartStream reads the next part's headers as its own)
+        corpus.add(new Response("empty parts", BOUNDARY, new ResponseBuilder(BOUNDARY)
+                .attachment("empty", new byte[0])
+                .raw("--" + BOUNDARY + "\r\ncontent-type:application/json\r\nCONTENT-ID:  <x>  \r\n"
+                        + "X-Other: a:b\r\n\r\n{}")
+                .close()));
+
+        // no parts at all
+        corpus.add(new Response("no parts", BOUNDARY,
+                ("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII)));
+
+        return corpus;
+    }
+
+    private static Response randomResponse(Random random, int index)
+    {
+        String boundary = "b" + Long.toHexString(random.nextLong());
+        byte[] delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        ResponseBuilder builder = new ResponseBuilder(boundary);
+        if (random.nextBoolean())
+        {
+            builder.preamble("preamble " + index + "\r\n");
+        }
+        int parts = random.nextInt(6);
+        for (int p = 0; p < parts; p++)
+        {
+            // bodies made of random bytes and pieces of the delimiter
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int pieces = random.nextInt(20);
+            for (int i = 0; i < pieces; i++)
+            {
+                if (random.nextBoolean())
+                {
+                    body.write(delimiter, 0, random.nextInt(delimiter.length));
+                }
+                else
+                {
+                    byte[] bytes = randomBytes(random, random.nextInt(100));
+                    body.write(bytes, 0, bytes.length);
+                }
+            }
+            builder.attachment("part" + p, body.toByteArray());
+        }
+        return new Response("random " + index, boundary, builder.close());
+    }
+
+    private static byte[] randomBytes(Random random, int length)
+    {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int indexOfCRLF(byte[] bytes)
+    {
+        for (int i = 0; i < (bytes.length - 1); i++)
+        {
+            if ((bytes[i] == '\r') && (bytes[i + 1] == '\n'))
+            {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+
+    private static class ResponseBuilder
+    {
+        private final String boundary;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean first = true;
+
+        ResponseBuilder(String boundary)
+        {
+            this.boundary = boundary;
+        }
+
+        ResponseBuilder preamble(String preamble)
+        {
+            write(preamble);
+            return this;
+        }
+
+        ResponseBuilder json(String json)
+        {
+            return raw("--" + boundary + "\r\nContent-Type: application/json; charset=UTF-8\r\n\r\n"
+                    + json);
+        }
+
+        ResponseBuilder attachment(String contentId, byte[] content)
+        {
+            raw("--" + boundary + "\r\nContent-ID: <" + contentId
+                    + ">\r\nContent-Type: application/octet-stream\r\n\r\n");
+            out.write(content, 0, content.length);
+            return this;
+        }
+
+        // starts with the delimiter, the CRLF ending the previous part is added here
+        ResponseBuilder raw(String part)
+        {
+            if (!first)
+            {
+                write("\r\n");
+            }
+            first = false;
+            write(part);
+            return this;
+        }
+
+        byte[] close()
+        {
+            write((first ? "" : "\r\n") + "--" + boundary + "--\r\n");
+            return out.toByteArray();
+        }
+
+        private void write(String s)
+        {
+            byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+}
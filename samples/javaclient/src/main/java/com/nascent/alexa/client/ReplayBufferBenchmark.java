@@ -0,0 +1,115 @@
+package com.nascent.alexa.client;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.eclipse.jetty.client.api.ContentProvider;
+
+import com.amazon.alexa.avs.AudioInputFormat;
+import com.amazon.alexa.avs.http.AudioInputStreamContentProvider;
+import com.amazon.alexa.avs.http.AudioReplayBuffer;
+import com.amazon.alexa.avs.http.CachingContentProvider;
+import com.amazon.alexa.avs.http.ReplayBufferContentProvider;
+
+//com.nascent.alexa.client.ReplayBufferBenchmark
+//----------------------------------------------
+// measures heap allocated and retained per second of Recognize audio when the upload is cached
+// for retries by CachingContentProvider (before) and ReplayBufferContentProvider (after)
+//
+// usage: ReplayBufferBenchmark [utterance seconds] [iterations]
+public class ReplayBufferBenchmark
+{
+    private static final AudioInputFormat AUDIO_TYPE = AudioInputFormat.LPCM;
+    private static final int BYTES_PER_SECOND =
+            AUDIO_TYPE.getChunkSizeBytes() * (1000 / AUDIO_TYPE.getChunkSizeMs());
+
+    private interface Decorator
+    {
+        ContentProvider decorate(ContentProvider source);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        byte[] audio = new byte[seconds * BYTES_PER_SECOND];
+
+        AudioReplayBuffer replayBuffer = new AudioReplayBuffer(AUDIO_TYPE, 10);
+
+        System.out.println("Utterance: " + seconds + " s, " + iterations + " iterations");
+        run("uncached", audio, iterations, seconds, source -> source);
+        run("CachingContentProvider", audio, iterations, seconds,
+                source -> new CachingContentProvider(source));
+        run("ReplayBufferContentProvider", audio, iterations, seconds,
+                source -> new ReplayBufferContentProvider(source, replayBuffer));
+    }
+
+    private static void run(String name, byte[] audio, int iterations, int seconds,
+            Decorator decorator)
+    {
+        // warm up
+        for (int i = 0; i < iterations; i++)
+        {
+            upload(decorator.decorate(newSource(audio)));
+        }
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            upload(decorator.decorate(newSource(audio)));
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+
+        // what a single utterance keeps reachable until the request completes
+        System.gc();
+        long usedBefore = getUsedHeap();
+        ContentProvider retained = decorator.decorate(newSource(audio));
+        upload(retained);
+        System.gc();
+        long retainedBytes = getUsedHeap() - usedBefore;
+
+        // printing the retained provider keeps it reachable across the measurement
+        System.out.printf("%-28s allocated %8d B/s of audio, retained %8d B/s of audio, "
+                + "%8.1f us/utterance (%s)%n", name, allocated / ((long) iterations * seconds),
+                Math.max(0, retainedBytes) / seconds, elapsed / 1000.0 / iterations,
+                retained.getClass().getSimpleName());
+    }
+
+    // first attempt plus one retry
+    private static void upload(ContentProvider content)
+    {
+        drain(content.iterator());
+        drain(content.iterator());
+    }
+
+    private static void drain(Iterator<ByteBuffer> iterator)
+    {
+        while (iterator.hasNext())
+        {
+            ByteBuffer buffer = iterator.next();
+            buffer.position(buffer.limit());
+        }
+    }
+
+    private static ContentProvider newSource(byte[] audio)
+    {
+        return new AudioInputStreamContentProvider(AUDIO_TYPE, new ByteArrayInputStream(audio));
+    }
+
+    private static long getAllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getUsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
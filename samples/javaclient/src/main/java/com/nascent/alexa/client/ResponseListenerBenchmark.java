@@ -0,0 +1,204 @@
+package com.nascent.alexa.client;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.util.Callback;
+
+import com.amazon.alexa.avs.http.jetty.ChunkedResponseListener;
+import com.amazon.alexa.avs.http.jetty.InputStreamResponseListener;
+
+//com.nascent.alexa.client.ResponseListenerBenchmark
+//--------------------------------------------------
+// measures throughput and allocation of the response listeners for 64 KB TTS payloads, delivered
+// in 16 KB HTTP/2 DATA frames by a producer thread that stands in for Jetty:
+//   InputStreamResponseListener - copies each frame into a new byte[] (before)
+//   ChunkedResponseListener     - queues Jetty's (pooled) buffers until released (after)
+//
+// usage: ResponseListenerBenchmark [payloads]
+public class ResponseListenerBenchmark
+{
+    private static final int PAYLOAD_SIZE = 64 * 1024;
+    private static final int FRAME_SIZE = 16 * 1024;
+    private static final int POOLED_FRAMES = 4;
+    private static final int READ_SIZE = 4096;
+
+    private interface Listener
+    {
+        void onContent(ByteBuffer frame, Callback callback);
+
+        void onSuccess();
+
+        InputStream getInputStream();
+    }
+
+    private interface ListenerFactory
+    {
+        Listener create();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int payloads = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        ListenerFactory copying = () -> {
+            InputStreamResponseListener listener = new InputStreamResponseListener();
+            return new Listener()
+            {
+                public void onContent(ByteBuffer frame, Callback callback)
+                {
+                    listener.onContent((Response) null, frame);
+                    callback.succeeded();
+                }
+
+                public void onSuccess()
+                {
+                    listener.onSuccess(null);
+                }
+
+                public InputStream getInputStream()
+                {
+                    return listener.getInputStream();
+                }
+            };
+        };
+        ListenerFactory chunked = () -> {
+            ChunkedResponseListener listener = new ChunkedResponseListener();
+            return new Listener()
+            {
+                public void onContent(ByteBuffer frame, Callback callback)
+                {
+                    listener.onContent(null, frame, callback);
+                }
+
+                public void onSuccess()
+                {
+                    listener.onSuccess(null);
+                }
+
+                public InputStream getInputStream()
+                {
+                    return listener.getInputStream();
+                }
+            };
+        };
+
+        // warm up
+        run(copying, payloads / 4);
+        run(chunked, payloads / 4);
+
+        System.out.println(payloads + " payloads of " + PAYLOAD_SIZE + " bytes");
+        report("InputStreamResponseListener", run(copying, payloads), payloads);
+        report("ChunkedResponseListener", run(chunked, payloads), payloads);
+    }
+
+    private static void report(String name, long[] result, int payloads)
+    {
+        double seconds = result[0] / 1e9;
+        double megabytes = ((double) payloads * PAYLOAD_SIZE) / (1024 * 1024);
+        System.out.printf("%-28s %8.1f MB/s, %8d bytes allocated per payload (%.2f per byte)%n",
+                name, megabytes / seconds, result[1] / payloads,
+                (double) result[1] / ((long) payloads * PAYLOAD_SIZE));
+    }
+
+    // returns {elapsed nanoseconds, bytes allocated by producer and consumer}
+    private static long[] run(ListenerFactory factory, int payloads) throws Exception
+    {
+        BlockingQueue<Listener> handoff = new ArrayBlockingQueue<>(1);
+        Producer producer = new Producer(handoff, payloads);
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        producer.start();
+        byte[] readBuffer = new byte[READ_SIZE];
+        long checksum = 0;
+        for (int i = 0; i < payloads; i++)
+        {
+            Listener listener = factory.create();
+            handoff.put(listener);
+            try (InputStream input = listener.getInputStream())
+            {
+                int read;
+                while ((read = input.read(readBuffer, 0, readBuffer.length)) != -1)
+                {
+                    checksum += readBuffer[read - 1];
+                }
+            }
+        }
+        producer.join();
+        long elapsed = System.nanoTime() - start;
+        long allocated = (getAllocatedBytes() - allocatedBefore) + producer.allocated;
+        if (checksum == Long.MIN_VALUE)
+        {
+            System.out.println(checksum);
+        }
+        return new long[] { elapsed, allocated };
+    }
+
+    private static long getAllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // stands in for Jetty: delivers each payload in frames from a small pool of buffers, and only
+    // reuses a buffer once its callback has completed
+    private static class Producer extends Thread
+    {
+        private final BlockingQueue<Listener> handoff;
+        private final int payloads;
+        private final BlockingQueue<PooledFrame> pool = new ArrayBlockingQueue<>(POOLED_FRAMES);
+        private volatile long allocated;
+
+        Producer(BlockingQueue<Listener> handoff, int payloads)
+        {
+            this.handoff = handoff;
+            this.payloads = payloads;
+            for (int i = 0; i < POOLED_FRAMES; i++)
+            {
+                pool.add(new PooledFrame());
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            long allocatedBefore = getAllocatedBytes();
+            try
+            {
+                for (int i = 0; i < payloads; i++)
+                {
+                    Listener listener = handoff.take();
+                    for (int sent = 0; sent < PAYLOAD_SIZE; sent += FRAME_SIZE)
+                    {
+                        PooledFrame frame = pool.take();
+                        frame.buffer.clear();
+                        listener.onContent(frame.buffer, frame);
+                    }
+                    listener.onSuccess();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            allocated = getAllocatedBytes() - allocatedBefore;
+        }
+
+        private class PooledFrame implements Callback
+        {
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_SIZE);
+
+            @Override
+            public void succeeded()
+            {
+                pool.offer(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.nascent.alexa.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.amazon.alexa.avs.AudioCapture;
+import com.amazon.alexa.avs.AudioInputFormat;
+import com.amazon.alexa.avs.AudioRing;
+import com.amazon.alexa.avs.FileAudioSource;
+
+import edu.cmu.pocketsphinx.Config;
+import edu.cmu.pocketsphinx.Decoder;
+
+//com.nascent.alexa.client.WakeWordBenchmark
+//------------------------------------------
+// measures pocketsphinx keyphrase spotting over a labelled corpus, for each threshold in a sweep:
+//   accuracy - detections, misses and miss rate against the labelled keyword ends, and false
+//              accepts, also per hour of audio
+//   latency  - from the labelled end of each keyword to its detection, in audio time
+//   speed    - real time factor (decoding time / audio time), cpu time per second of audio and
+//              the most cpu any one frame took
+//
+// every threshold is run twice, decoding all the audio and with the decoder gated by voice
+// activity as the app does, so the gate's effect on accuracy shows next to how much of the time
+// the decoder slept and the cpu used per second of audio while it did
+//
+// the audio is read through AudioCapture from an unthrottled FileAudioSource and decoded by the
+// app's KeywordSpotter, so it goes through the same capture ring and frame feeding as the
+// microphone, and every run over the same corpus is identical
+//
+// the labels file has one audio file (wav or raw 16 kHz 16 bit mono) per line, relative to the
+// labels file, followed by the time in seconds at which each keyword in it ends; a file with no
+// times has no keyword and only counts towards false accepts. lines starting with # are ignored
+//
+//   alexa_01.wav 1.42
+//   two_alexas.raw 2.10 7.85
+//   kitchen_noise.wav
+//
+// usage: WakeWordBenchmark labels-file [--keyphrase alexa] [--thresholds 1e-5,1e-10,...]
+//                          [--model model] [--block-ms 10] [--max-fa-per-hour 1]
+//                          [--gate-lookback-ms 1000] [--gate-hangover-ms 1000]
+public class WakeWordBenchmark
+{
+    static
+    {
+        System.loadLibrary("pocketsphinx_jni");
+    }
+
+    private static final AudioInputFormat AUDIO_TYPE = AudioInputFormat.LPCM;
+    private static final String DEFAULT_KEYPHRASE = "alexa";
+    private static final String DEFAULT_THRESHOLDS = "1e-1,1e-5,1e-10,1e-15,1e-20,1e-25,1e-30";
+    private static final String DEFAULT_MODEL = "model";
+    private static final int DEFAULT_BLOCK_MS = 10;
+    private static final double DEFAULT_MAX_FA_PER_HOUR = 1;
+    private static final int DEFAULT_GATE_LOOKBACK_MS = 1000;
+    private static final int DEFAULT_GATE_HANGOVER_MS = 1000;
+
+    // a detection counts for a keyword that ended up to this long before it, or slightly after
+    // it since labels are hand placed
+    private static final double MAX_LATENCY_SECONDS = 3.0;
+    private static final double EARLY_TOLERANCE_SECONDS = 0.3;
+
+    private static class LabelledFile
+    {
+        final File file;
+        final double[] keywordEnds;
+
+        LabelledFile(File file, double[] keywordEnds)
+        {
+            this.file = file;
+            this.keywordEnds = keywordEnds;
+        }
+    }
+
+    private static class Result
+    {
+        final String threshold;
+        final boolean gated;
+        int keywords;
+        int detected;
+        int falseAccepts;
+        double audioSeconds;
+        double decodeSeconds;
+        double cpuSeconds;
+        double maxFrameCpuMicros;
+        double awakeSeconds;
+        double idleCpuSeconds;
+        final List<Double> latencies = new ArrayList<>();
+
+        Result(String threshold, boolean gated)
+        {
+            this.threshold = threshold;
+            this.gated = gated;
+        }
+
+        String label()
+        {
+            return gated ? threshold + " gated" : threshold;
+        }
+
+        double missRate()
+        {
+            return (keywords == 0) ? 0 : (double) (keywords - detected) / keywords;
+        }
+
+        double falseAcceptsPerHour()
+        {
+            return (audioSeconds == 0) ? 0 : (falseAccepts * 3600.0) / audioSeconds;
+        }
+
+        // cpu per second of audio while the gate kept the decoder asleep
+        String idleCpuMillisPerSecond()
+        {
+            double asleepSeconds = audioSeconds - awakeSeconds;
+            return (!gated || (asleepSeconds <= 0)) ? "-"
+                    : String.format("%.1f", (1000 * idleCpuSeconds) / asleepSeconds);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("usage: WakeWordBenchmark labels-file [--keyphrase alexa] "
+                    + "[--thresholds 1e-5,1e-10,...] [--model model] [--block-ms 10] "
+                    + "[--max-fa-per-hour 1] [--gate-lookback-ms 1000] [--gate-hangover-ms 1000]");
+            return;
+        }
+
+        String keyphrase = DEFAULT_KEYPHRASE;
+        String thresholds = DEFAULT_THRESHOLDS;
+        String model = DEFAULT_MODEL;
+        int blockMs = DEFAULT_BLOCK_MS;
+        double maxFalseAcceptsPerHour = DEFAULT_MAX_FA_PER_HOUR;
+        int gateLookbackMs = DEFAULT_GATE_LOOKBACK_MS;
+        int gateHangoverMs = DEFAULT_GATE_HANGOVER_MS;
+        for (int i = 1; i < args.length - 1; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--keyphrase":
+                    keyphrase = args[i + 1];
+                    break;
+                case "--thresholds":
+                    thresholds = args[i + 1];
+                    break;
+                case "--model":
+                    model = args[i + 1];
+                    break;
+                case "--block-ms":
+                    blockMs = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-fa-per-hour":
+                    maxFalseAcceptsPerHour = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--gate-lookback-ms":
+                    gateLookbackMs = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--gate-hangover-ms":
+                    gateHangoverMs = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<LabelledFile> corpus = readLabels(new File(args[0]));
+        System.out.println("Keyphrase \"" + keyphrase + "\", " + corpus.size() + " files, "
+                + blockMs + " ms blocks, gate lookback " + gateLookbackMs + " ms hangover "
+                + gateHangoverMs + " ms");
+
+        List<Result> results = new ArrayList<>();
+        for (String threshold : thresholds.split(","))
+        {
+            Config config = Decoder.defaultConfig();
+            config.setString("-hmm", model + "/en-us/en-us");
+            config.setString("-dict", model + "/en-us/cmudict-en-us.dict");
+            config.setString("-keyphrase", keyphrase);
+            config.setFloat("-kws_threshold", Double.parseDouble(threshold.trim()));
+            config.setString("-logfn", "/dev/null");
+            Decoder decoder = new Decoder(config);
+
+            for (boolean gated : new boolean[] { false, true })
+            {
+                Result result = new Result(threshold.trim(), gated);
+                for (LabelledFile labelled : corpus)
+                {
+                    KeywordSpotter spotter = new KeywordSpotter(decoder,
+                            (int) ((AUDIO_TYPE.getAudioFormat().getSampleRate() * blockMs) / 1000),
+                            AUDIO_TYPE.getAudioFormat().getSampleRate());
+                    if (gated)
+                    {
+                        spotter.setGate(gateLookbackMs, gateHangoverMs);
+                    }
+                    run(spotter, labelled, result);
+                }
+                results.add(result);
+            }
+            decoder.delete();
+        }
+
+        report(results, maxFalseAcceptsPerHour);
+    }
+
+    private static List<LabelledFile> readLabels(File labels) throws IOException
+    {
+        List<LabelledFile> corpus = new ArrayList<>();
+        for (String line : Files.readAllLines(labels.toPath(), StandardCharsets.UTF_8))
+        {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+            {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            double[] ends = new double[fields.length - 1];
+            for (int i = 1; i < fields.length; i++)
+            {
+                ends[i - 1] = Double.parseDouble(fields[i]);
+            }
+            Arrays.sort(ends);
+            corpus.add(new LabelledFile(new File(labels.getParentFile(), fields[0]), ends));
+        }
+        return corpus;
+    }
+
+    // decodes one file, restarting the search after each detection like the app does
+    private static void run(KeywordSpotter spotter, LabelledFile labelled, Result result)
+            throws Exception
+    {
+        AudioFormat format = AUDIO_TYPE.getAudioFormat();
+        float sampleRate = format.getSampleRate();
+        AudioCapture capture = new AudioCapture(format, new FileAudioSource(
+                Collections.singletonList(labelled.file), FileAudioSource.Pacing.UNTHROTTLED));
+        AudioRing.Cursor cursor = capture.openCursor(0);
+        capture.startContinuousCapture();
+
+        boolean[] matched = new boolean[labelled.keywordEnds.length];
+        long detectedAt;
+        while ((detectedAt = spotter.spot(cursor, () -> false)) >= 0)
+        {
+            double at = detectedAt / sampleRate;
+            int keyword = match(labelled.keywordEnds, matched, at);
+            if (keyword < 0)
+            {
+                result.falseAccepts++;
+                System.out.printf("  %s: false accept at %.2fs (threshold %s)%n",
+                        labelled.file.getName(), at, result.label());
+            }
+            else
+            {
+                matched[keyword] = true;
+                result.detected++;
+                result.latencies.add(at - labelled.keywordEnds[keyword]);
+            }
+        }
+        long samplesDecoded = cursor.getPosition() / format.getFrameSize();
+        cursor.close();
+        capture.stopContinuousCapture();
+
+        result.keywords += labelled.keywordEnds.length;
+        double seconds = samplesDecoded / sampleRate;
+        result.audioSeconds += seconds;
+        result.awakeSeconds += seconds * spotter.getAwakeFraction();
+        result.idleCpuSeconds += spotter.getIdleCpuNanos() / 1e9;
+        result.decodeSeconds += spotter.getTotalDecodeNanos() / 1e9;
+        result.cpuSeconds += spotter.getTotalCpuNanos() / 1e9;
+        result.maxFrameCpuMicros =
+                Math.max(result.maxFrameCpuMicros, spotter.getMaxFrameCpuMicros());
+    }
+
+    // the earliest keyword not yet detected that a detection at the given time belongs to
+    private static int match(double[] keywordEnds, boolean[] matched, double at)
+    {
+        for (int i = 0; i < keywordEnds.length; i++)
+        {
+            if (!matched[i] && (at >= (keywordEnds[i] - EARLY_TOLERANCE_SECONDS))
+                    && (at <= (keywordEnds[i] + MAX_LATENCY_SECONDS)))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void report(List<Result> results, double maxFalseAcceptsPerHour)
+    {
+        System.out.println();
+        System.out.println(String.format(
+                "%-16s %8s %8s %7s %6s %8s %9s %9s %9s %7s %9s %12s %7s %10s", "threshold",
+                "keywords", "detected", "miss%", "FA", "FA/hour", "lat avg", "lat p50", "lat p95",
+                "RTF", "cpu ms/s", "max frame us", "awake%", "idle ms/s"));
+        Result best = null;
+        for (Result result : results)
+        {
+            List<Double> latencies = new ArrayList<>(result.latencies);
+            Collections.sort(latencies);
+            double average = 0;
+            for (double latency : latencies)
+            {
+                average += latency;
+            }
+            average = latencies.isEmpty() ? 0 : average / latencies.size();
+
+            System.out.println(String.format(
+                    "%-16s %8d %8d %6.1f%% %6d %8.2f %7.0fms %7.0fms %7.0fms %7.3f %9.1f %12.0f "
+                            + "%6.1f%% %10s",
+                    result.label(), result.keywords, result.detected, 100 * result.missRate(),
+                    result.falseAccepts, result.falseAcceptsPerHour(), 1000 * average,
+                    1000 * percentile(latencies, 0.5), 1000 * percentile(latencies, 0.95),
+                    result.decodeSeconds / result.audioSeconds,
+                    (1000 * result.cpuSeconds) / result.audioSeconds, result.maxFrameCpuMicros,
+                    (100 * result.awakeSeconds) / result.audioSeconds,
+                    result.idleCpuMillisPerSecond()));
+
+            if ((result.falseAcceptsPerHour() <= maxFalseAcceptsPerHour)
+                    && ((best == null) || (result.missRate() < best.missRate())))
+            {
+                best = result;
+            }
+        }
+
+        System.out.println();
+        if (best == null)
+        {
+            System.out.println("No threshold stays within " + maxFalseAcceptsPerHour
+                    + " false accepts per hour");
+        }
+        else
+        {
+            System.out.printf("Lowest miss rate within %.2f false accepts per hour: %s (%.1f%%)%n",
+                    maxFalseAcceptsPerHour, best.label(), 100 * best.missRate());
+        }
+
+        // results come in pairs, always on then gated
+        for (int i = 0; i + 1 < results.size(); i += 2)
+        {
+            Result always = results.get(i);
+            Result gated = results.get(i + 1);
+            if ((gated.detected != always.detected) || (gated.falseAccepts != always.falseAccepts))
+            {
+                System.out.printf("Gating changed threshold %s: %+d detected, %+d false accepts%n",
+                        always.threshold, gated.detected - always.detected,
+                        gated.falseAccepts - always.falseAccepts);
+            }
+        }
+    }
+
+    private static double percentile(List<Double> sorted, double fraction)
+    {
+        if (sorted.isEmpty())
+        {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}